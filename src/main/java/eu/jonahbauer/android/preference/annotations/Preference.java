@@ -82,7 +82,9 @@ public @interface Preference {
      * the default value is automatically escaped and quoted, otherwise it will be copied into the generated class
      * source code as is.
      * If a {@link #serializer()} is used, the default value must be provided in serialized form, i.e. it must be
-     * a valid argument to the serializers {@link PreferenceSerializer#deserialize(Object)} method.
+     * a valid argument to the serializers {@link PreferenceSerializer#deserialize(Object)} method. For serializers
+     * with target type {@code String} the deserialized default value is computed once on first use and the same
+     * instance is returned whenever the preference is missing, so it must not be modified.
      * @implNote it is possibly to inject code into the generated classes by misusing this field. Just don't.
      */
     String defaultValue() default NO_DEFAULT_VALUE;
@@ -103,7 +105,10 @@ public @interface Preference {
      *     are present it is not defined which one will be used. Furthermore the serializers target type must be a
      *     primitive wrapper or {@code String}. If the target type is a primitive wrapper the argument of
      *     {@link PreferenceSerializer#deserialize(Object)} is guaranteed to be non-{@code null} and the return value of
-     *     {@link PreferenceSerializer#serialize(Object)} must be non-{@code null}.
+     *     {@link PreferenceSerializer#serialize(Object)} must be non-{@code null}. Serializers with target type
+     *     {@code int}, {@code long}, {@code float} or {@code boolean} should implement the corresponding primitive
+     *     specialization (e.g. {@link eu.jonahbauer.android.preference.annotations.serializer.IntPreferenceSerializer})
+     *     to avoid boxing.
      * </p>
      * <p>
      *     The actual preference type will be the serializers source type. Therefore a preference
@@ -124,4 +129,104 @@ public @interface Preference {
      * </p>
      */
     Class<? extends PreferenceSerializer> serializer() default PreferenceSerializer.class;
+
+    /**
+     * Whether the generated preference group should cache the deserialized value of this preference.
+     * Repeated reads of a cached preference neither access the {@code SharedPreferences} nor call the
+     * {@linkplain #serializer() serializer} until the value is changed.
+     * <br>
+     * Cached values must not be modified since the same instance will be returned by subsequent reads.
+     * @see Preferences#cache()
+     */
+    boolean cache() default false;
+
+    /**
+     * Whether the generated setters should compare the new value with the stored value and skip writing it when they
+     * are equal. Neither the {@code SharedPreferences} are written nor any listeners are notified in that case.
+     * <br>
+     * Values are compared in their serialized form, i.e. after applying the {@linkplain #serializer() serializer}.
+     * A missing value is considered to be equal to the {@linkplain #defaultValue() default value}. For setters of
+     * an {@code Editor} the comparison takes place when the setter is called and not when the changes are applied.
+     * @see Preferences#skipUnchangedWrites()
+     */
+    boolean skipUnchangedWrites() default false;
+
+    /**
+     * Whether the {@linkplain #serializer() serializer} should be instantiated on first use instead of when the
+     * preference group is instantiated. This is useful for serializers that are expensive to construct and belong to
+     * rarely accessed preferences. The serializer is instantiated at most once and safely published to all threads.
+     * {@linkplain #shareSerializer() Shared} serializers are always instantiated on first use.
+     * @see Preferences#lazySerializers()
+     */
+    boolean lazySerializer() default false;
+
+    /**
+     * Whether the {@linkplain #serializer() serializer} instance may be shared with other preferences of the same
+     * preference class using the same serializer for the same type. Shared serializers are instantiated on first use
+     * and must be thread-safe. Set this to {@code false} for serializers that must not be used concurrently by
+     * different preferences.
+     */
+    boolean shareSerializer() default true;
+
+    /**
+     * When the generated setter writes the value to the {@code SharedPreferences}. Unless the policy is
+     * {@link WritePolicy#IMMEDIATE}, the setter keeps the serialized value in memory, where it is visible to the
+     * getter immediately, and writes only the latest value when the write is due. Pending values of all preferences
+     * are written by the generated {@code flushPending()} method, which should be called from lifecycle hooks such as
+     * {@code onPause()}. Pending values are also written before creating a snapshot and before applying an
+     * {@code Editor}, and they are discarded by {@code clear()}.
+     * <br>
+     * A pending value takes precedence over the stored value, so changes made to the {@code SharedPreferences} by
+     * other means are overwritten once the pending value is written.
+     * @see #debounceWindow()
+     */
+    WritePolicy writePolicy() default WritePolicy.IMMEDIATE;
+
+    /**
+     * The time in milliseconds after the first change after which the value of a {@link WritePolicy#DEBOUNCED}
+     * preference is written. If this is not positive, the value is only written when calling {@code flushPending()}.
+     * This field does not have an effect unless the {@link #writePolicy()} is {@link WritePolicy#DEBOUNCED}.
+     */
+    long debounceWindow() default 100;
+
+    /**
+     * Whether the value of this preference should only be kept in memory for the lifetime of the preference class
+     * instead of being stored in the {@code SharedPreferences}. The getter and setter access a field of the
+     * preference group, the key is still available and listeners and publishers are notified by the setter. The
+     * value is neither written to disk nor reset by {@code clear()}. Neither {@linkplain #cache() caching} nor any
+     * {@linkplain #writePolicy() write policy} applies to memory-only preferences.
+     * @see PreferenceGroup#memoryOnly()
+     */
+    boolean memoryOnly() default false;
+
+    /**
+     * Whether this {@code int} or {@code long} preference is a counter. In addition to the getter and setter,
+     * the generated preference group contains methods {@code incrementFoo(delta)} and {@code addAndGetFoo(delta)}
+     * for a preference named {@code foo}. Increments neither block nor write to the {@code SharedPreferences}
+     * but are collected in a {@link java.util.concurrent.atomic.LongAdder}. The collected increments are added to
+     * the stored value when the value is written according to the {@linkplain #writePolicy() write policy}, so that
+     * no increments are lost, neither to concurrent increments nor to changes made to the {@code SharedPreferences}
+     * by other means. Counters are never written immediately: with {@link WritePolicy#IMMEDIATE} they behave as with
+     * {@link WritePolicy#DEBOUNCED}.
+     * <br>
+     * Counters are not {@linkplain #cache() cached} and must neither be {@linkplain #memoryOnly() memory-only} nor
+     * use a {@linkplain #serializer() serializer}. The value returned by {@code addAndGetFoo(delta)} may include
+     * increments made concurrently by other threads.
+     */
+    boolean counter() default false;
+
+    /**
+     * Whether the generated preference group should contain a method {@code updateFoo(UnaryOperator)} for a
+     * preference named {@code foo}, which atomically replaces the value with the result of applying the given
+     * function to it. The function is applied outside any lock and the result is only written if the serialized
+     * value has not been changed in the meantime, otherwise the update is retried. The function should therefore be
+     * free of side effects.
+     * <br>
+     * Updates and setters of the same preference are serialized using a lock per preference, so neither loses the
+     * changes of the other. Changes made by an {@code Editor} or to the {@code SharedPreferences} by other means are
+     * detected unless they happen while the result is being written. Counters do not get an update method, since
+     * they provide {@code addAndGetFoo(delta)} instead.
+     * @see Preferences#update()
+     */
+    boolean update() default false;
 }
@@ -33,6 +33,31 @@ public @interface PreferenceGroup {
      */
     String name();
 
+    /**
+     * Whether the boolean preferences of this group should be stored as bits of one or more {@code long} preferences
+     * instead of one entry per preference. The keys of the backing preferences are read from the string resources
+     * named by the {@linkplain #prefix() prefix}, {@code packed_booleans_} followed by an index and the
+     * {@linkplain #suffix() suffix}. The generated {@code keys()} return these keys for packed boolean preferences.
+     * Bits are assigned in declaration order, so new boolean preferences must only be appended. Cannot be combined
+     * with {@link Preferences#coalesceWrites()}.
+     */
+    boolean packBooleans() default false;
+
+    /**
+     * The name of the preferences file backing this group. Groups with the same file share a single
+     * {@code SharedPreferences} instance, which is obtained from the factory passed to {@code init}. Groups without a
+     * file are backed by the {@code SharedPreferences} passed to {@code init}. Since every file is written on its own,
+     * moving frequently written preferences to a separate file reduces the amount of data written on every change.
+     * Cannot be combined with {@link Preferences#coalesceWrites()}.
+     */
+    String file() default "";
+
+    /**
+     * Whether all preferences of this group should only be kept in memory.
+     * @see Preference#memoryOnly()
+     */
+    boolean memoryOnly() default false;
+
     /**
      * A list of {@link Preference}s.
      */
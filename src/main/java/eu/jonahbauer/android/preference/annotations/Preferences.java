@@ -126,4 +126,106 @@ public @interface Preferences {
      * Whether to generate an {@code Editor} class similar to {@code SharedPreferences.Editor}.
      */
     boolean editor() default false;
+
+    /**
+     * Whether to generate a {@code snapshot()} method for the preference class and every preference group. A snapshot
+     * is an immutable copy of all preferences that is read with a single call to {@code SharedPreferences.getAll()}
+     * and deserialized only once.
+     */
+    boolean snapshot() default false;
+
+    /**
+     * Whether to generate a typed {@code Listener} interface for every preference group. Listeners registered with a
+     * group are notified by a single {@code OnSharedPreferenceChangeListener} that is registered in {@code init} and
+     * dispatches every change to the affected group without comparing the key against every preference key.
+     */
+    boolean listeners() default false;
+
+    /**
+     * Whether to generate a {@code java.util.concurrent.Flow.Publisher} for every preference. The publishers emit
+     * the current value to every subscriber and the new value whenever the preference changes. All publishers share
+     * the single {@code OnSharedPreferenceChangeListener} that is registered in {@code init}.
+     */
+    boolean publishers() default false;
+
+    /**
+     * Whether the generated preference groups should cache the deserialized value of every preference.
+     * A cached value is invalidated by a {@code OnSharedPreferenceChangeListener} that is registered in {@code init}.
+     * Caching can also be enabled for a single preference via {@link Preference#cache()}.
+     * @see Preference#cache()
+     */
+    boolean cache() default false;
+
+    /**
+     * Whether the generated setters should stage their changes in a shared editor instead of applying every change
+     * on its own. Staged changes are applied all at once by the generated {@code flush()} method, which is called
+     * automatically {@linkplain #coalesceWindow() some time} after the first staged change, before reading any
+     * preference and before applying an {@code Editor}.
+     * @see #coalesceWindow()
+     */
+    boolean coalesceWrites() default false;
+
+    /**
+     * The time in milliseconds after which changes staged by the generated setters are applied automatically.
+     * If this is not positive, staged changes are only applied when calling {@code flush()}, when reading a
+     * preference or when applying an {@code Editor}. This field does not have an effect unless
+     * {@link #coalesceWrites()} is {@code true}.
+     */
+    long coalesceWindow() default 100;
+
+    /**
+     * Whether the generated setters should compare the new value with the stored value and skip writing it when they
+     * are equal. Skipping unchanged writes can also be enabled for a single preference via
+     * {@link Preference#skipUnchangedWrites()}.
+     * @see Preference#skipUnchangedWrites()
+     */
+    boolean skipUnchangedWrites() default false;
+
+    /**
+     * Whether the generated preference groups should contain an atomic {@code updateFoo(UnaryOperator)} method for
+     * every preference. Update methods can also be enabled for a single preference via {@link Preference#update()}.
+     * @see Preference#update()
+     */
+    boolean update() default false;
+
+    /**
+     * Whether the preference keys should be loaded from the {@code Resources} on first use instead of during
+     * {@code init}. When enabled, the preference groups keep a reference to the {@code Resources} passed to
+     * {@code init}.
+     */
+    boolean lazyKeys() default false;
+
+    /**
+     * Whether the preference groups should be instantiated on first access instead of during {@code init}. The group
+     * accessors will not check whether the preference class has been initialized. Instead, accessing a group before
+     * {@code init} has been called makes the group permanently unavailable.
+     */
+    boolean lazyGroups() default false;
+
+    /**
+     * Whether the serializers should be instantiated on first use instead of when the preference group is
+     * instantiated. Lazy instantiation can also be enabled for a single preference via
+     * {@link Preference#lazySerializer()}.
+     * @see Preference#lazySerializer()
+     */
+    boolean lazySerializers() default false;
+
+    /**
+     * Whether the generated code should access the preferences through a
+     * {@link eu.jonahbauer.android.preference.annotations.store.PreferenceStore} instead of {@code SharedPreferences}.
+     * The generated class then provides an {@code init} method accepting an arbitrary {@code PreferenceStore} in
+     * addition to the one accepting {@code SharedPreferences}, which wraps them in an adapter, and
+     * {@code getPreferenceStore()} instead of {@code getSharedPreferences()}.
+     */
+    boolean store() default false;
+
+    /**
+     * Whether the serialized values should be kept in arrays with one slot per preference. Getters read the slots
+     * instead of looking up the values in the {@code SharedPreferences} by their keys. Setters only update the slot
+     * and mark it as dirty. The dirty slots of a group are written in a single batch on a background thread and by
+     * {@code flushPending()}, or staged in the shared editor when combined with {@link #coalesceWrites()}. Changes
+     * made by other means are reloaded into the slots that are not dirty by an
+     * {@code OnSharedPreferenceChangeListener}. All values are read once when a group is instantiated.
+     */
+    boolean slots() default false;
 }
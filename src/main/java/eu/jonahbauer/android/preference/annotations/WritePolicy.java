@@ -0,0 +1,23 @@
+package eu.jonahbauer.android.preference.annotations;
+
+/**
+ * Defines when the value passed to a generated setter is written to the {@code SharedPreferences}.
+ * @see Preference#writePolicy()
+ */
+public enum WritePolicy {
+    /**
+     * The value is written immediately.
+     */
+    IMMEDIATE,
+
+    /**
+     * The value is kept in memory and written {@linkplain Preference#debounceWindow() some time} after the first
+     * change, so that the preference is written at most once per window no matter how often it is changed.
+     */
+    DEBOUNCED,
+
+    /**
+     * The value is kept in memory and only written when calling the generated {@code flushPending()} method.
+     */
+    ON_FLUSH
+}
@@ -0,0 +1,156 @@
+package eu.jonahbauer.android.preference.annotations.flow;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Flow.Publisher} emitting the value of a single preference. Every subscriber receives the current value
+ * upon subscription and the new value whenever the preference changes.
+ * <p>
+ * Values are conflated: a subscriber that has no outstanding demand only keeps the latest value and receives it as
+ * soon as it requests more items. Consecutive equal values are delivered only once. Values are delivered on the
+ * thread that {@linkplain #publish() publishes} them or on the thread that requests them.
+ * <p>
+ * Instances of this class are created by the generated code and are published by the
+ * {@code OnSharedPreferenceChangeListener} of the preference class, so that no listener is registered per
+ * subscriber.
+ * @param <T> the preference type
+ */
+public final class PreferencePublisher<T> implements Flow.Publisher<T> {
+    private static final Object NO_VALUE = new Object();
+
+    private final Supplier<T> supplier;
+    private final Set<PreferenceSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param supplier a supplier reading the current value of the preference
+     */
+    public PreferencePublisher(Supplier<T> supplier) {
+        this.supplier = Objects.requireNonNull(supplier, "Supplier must not be null.");
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber must not be null.");
+
+        var subscription = new PreferenceSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+
+        try {
+            subscription.offer(supplier.get());
+        } catch (RuntimeException e) {
+            subscription.fail(e);
+        }
+    }
+
+    /**
+     * Reads the current value of the preference and offers it to all subscribers. Nothing is read when there are
+     * no subscribers. If the value cannot be read, all subscribers are terminated with the exception.
+     */
+    public void publish() {
+        if (subscriptions.isEmpty()) return;
+
+        T value;
+        try {
+            value = supplier.get();
+        } catch (RuntimeException e) {
+            subscriptions.forEach(subscription -> subscription.fail(e));
+            return;
+        }
+
+        subscriptions.forEach(subscription -> subscription.offer(value));
+    }
+
+    private final class PreferenceSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicInteger wip = new AtomicInteger();
+
+        // guarded by this
+        private long requested;
+        private Object pending = NO_VALUE;
+        private Throwable error;
+
+        // only accessed while draining
+        private Object last = NO_VALUE;
+        private volatile boolean done;
+
+        private PreferenceSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+
+            synchronized (this) {
+                requested += n;
+                if (requested < 0) requested = Long.MAX_VALUE;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            subscriptions.remove(this);
+        }
+
+        private void offer(T value) {
+            synchronized (this) {
+                pending = value;
+            }
+            drain();
+        }
+
+        private void fail(Throwable throwable) {
+            subscriptions.remove(this);
+            synchronized (this) {
+                if (error == null) error = throwable;
+            }
+            drain();
+        }
+
+        /**
+         * Delivers the pending value and the error (if any) to the subscriber. Only one thread is draining at a time
+         * so that the subscriber is signalled serially.
+         */
+        @SuppressWarnings("unchecked")
+        private void drain() {
+            if (wip.getAndIncrement() != 0) return;
+
+            do {
+                while (!done) {
+                    Object value;
+                    Throwable error;
+                    synchronized (this) {
+                        error = this.error;
+                        value = NO_VALUE;
+                        if (error == null && requested > 0 && pending != NO_VALUE) {
+                            value = pending;
+                            pending = NO_VALUE;
+                            if (!Objects.equals(value, last) && requested != Long.MAX_VALUE) requested--;
+                        }
+                    }
+
+                    if (error != null) {
+                        done = true;
+                        subscriber.onError(error);
+                    } else if (value == NO_VALUE) {
+                        break;
+                    } else if (!Objects.equals(value, last)) {
+                        last = value;
+                        subscriber.onNext((T) value);
+                    }
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+    }
+}
@@ -1,15 +1,32 @@
 package eu.jonahbauer.android.preference.annotations.processor;
 
 import com.squareup.javapoet.ClassName;
+import eu.jonahbauer.android.preference.annotations.flow.PreferencePublisher;
+import eu.jonahbauer.android.preference.annotations.store.PreferenceStore;
 import lombok.experimental.UtilityClass;
 
 import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @UtilityClass
 public class ClassNames {
     public static final ClassName SHARED_PREFERENCES = ClassName.get("android.content", "SharedPreferences");
     public static final ClassName SHARED_PREFERENCES_EDITOR = ClassName.get("android.content", "SharedPreferences", "Editor");
+    public static final ClassName ON_SHARED_PREFERENCE_CHANGE_LISTENER = ClassName.get("android.content", "SharedPreferences", "OnSharedPreferenceChangeListener");
     public static final ClassName RESOURCES = ClassName.get("android.content.res", "Resources");
     public static final ClassName ILLEGAL_STATE_EXCEPTION = ClassName.get(IllegalStateException.class);
     public static final ClassName OBJECTS = ClassName.get(Objects.class);
+    public static final ClassName EXECUTORS = ClassName.get(Executors.class);
+    public static final ClassName SCHEDULED_EXECUTOR_SERVICE = ClassName.get(ScheduledExecutorService.class);
+    public static final ClassName TIME_UNIT = ClassName.get(TimeUnit.class);
+    public static final ClassName LONG_ADDER = ClassName.get(LongAdder.class);
+    public static final ClassName FLOW_PUBLISHER = ClassName.get(Flow.Publisher.class);
+    public static final ClassName PREFERENCE_PUBLISHER = ClassName.get(PreferencePublisher.class);
+    public static final ClassName PREFERENCE_STORE = ClassName.get(PreferenceStore.class);
+    public static final ClassName PREFERENCE_STORE_EDITOR = ClassName.get(PreferenceStore.Editor.class);
+    public static final ClassName PREFERENCE_STORE_LISTENER = ClassName.get(PreferenceStore.OnChangeListener.class);
 }
@@ -13,6 +13,9 @@ import java.util.Set;
 @SupportedAnnotationTypes({
         "eu.jonahbauer.android.preference.annotations.Preferences"
 })
+@SupportedOptions({
+        StringResources.OPTION
+})
 @SupportedSourceVersion(SourceVersion.RELEASE_11)
 public final class PreferenceProcessor extends AbstractProcessor {
 
@@ -0,0 +1,155 @@
+package eu.jonahbauer.android.preference.annotations.processor;
+
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Reads string resources from Android resource files at compile time.
+ */
+public final class StringResources {
+    /**
+     * The processor option containing the paths of the resource files, separated by {@link File#pathSeparator}.
+     */
+    public static final String OPTION = "preferences.stringsXml";
+
+    private static final String REFERENCE_PREFIX = "@string/";
+
+    /**
+     * Parses the {@code <string>} resources from the given resource files. References to other string resources are
+     * resolved.
+     * @param paths the paths of the resource files, separated by {@link File#pathSeparator}
+     * @return a map from resource name to value
+     * @throws IOException if a file could not be read or is not a valid resource file or a value contains an invalid
+     * escape sequence
+     */
+    public static Map<String, String> parse(String paths) throws IOException {
+        var raw = new HashMap<String, String>();
+        for (String path : paths.split(Pattern.quote(File.pathSeparator))) {
+            if (path.isBlank()) continue;
+            parse(Path.of(path.trim()), raw);
+        }
+
+        var out = new HashMap<String, String>();
+        for (String name : raw.keySet()) {
+            var value = resolve(raw, name, new HashSet<>());
+            if (value != null) out.put(name, value);
+        }
+        return out;
+    }
+
+    private static void parse(Path path, Map<String, String> out) throws IOException {
+        try {
+            var factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+
+            var document = factory.newDocumentBuilder().parse(path.toFile());
+            var strings = document.getDocumentElement().getElementsByTagName("string");
+            for (int i = 0; i < strings.getLength(); i++) {
+                var string = (Element) strings.item(i);
+                var name = string.getAttribute("name");
+                if (name.isEmpty()) continue;
+
+                out.put(name, string.getTextContent());
+            }
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Could not parse string resources from " + path + ".", e);
+        }
+    }
+
+    /**
+     * Resolves references and unescapes the value of the string resource with the given name.
+     * @return the value or {@code null} if the resource or a referenced resource does not exist or the references are
+     * cyclic
+     * @throws IOException if the value contains an invalid escape sequence
+     */
+    private static String resolve(Map<String, String> raw, String name, Set<String> visited) throws IOException {
+        var value = raw.get(name);
+        if (value == null || !visited.add(name)) return null;
+
+        var trimmed = value.trim();
+        if (trimmed.startsWith(REFERENCE_PREFIX)) {
+            return resolve(raw, trimmed.substring(REFERENCE_PREFIX.length()), visited);
+        } else try {
+            return unescape(value);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid string resource " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Unescapes a string resource value like {@code aapt} does: whitespace outside of double quotes is collapsed and
+     * trimmed, unescaped double quotes are removed and backslash escapes are replaced.
+     * @throws IllegalArgumentException if a unicode escape sequence is not followed by four hexadecimal digits
+     */
+    static String unescape(String value) {
+        var out = new StringBuilder(value.length());
+        var quoted = false;
+        var whitespace = false;
+
+        for (int i = 0; i < value.length(); i++) {
+            var chr = value.charAt(i);
+            if (chr == '\\' && i + 1 < value.length()) {
+                if (whitespace && out.length() > 0) out.append(' ');
+                whitespace = false;
+
+                var next = value.charAt(++i);
+                switch (next) {
+                    case 'n': out.append('\n'); break;
+                    case 't': out.append('\t'); break;
+                    case 'u':
+                        out.append(unicode(value, i + 1));
+                        i += 4;
+                        break;
+                    default: out.append(next);
+                }
+            } else if (chr == '"') {
+                if (whitespace && out.length() > 0) out.append(' ');
+                whitespace = false;
+                quoted = !quoted;
+            } else if (!quoted && Character.isWhitespace(chr)) {
+                whitespace = true;
+            } else {
+                if (whitespace && out.length() > 0) out.append(' ');
+                whitespace = false;
+                out.append(chr);
+            }
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Decodes the four hexadecimal digits of a unicode escape sequence starting at the given index.
+     * @throws IllegalArgumentException if there are less than four hexadecimal digits
+     */
+    private static char unicode(String value, int start) {
+        var end = start + 4;
+        if (end > value.length()) {
+            throw new IllegalArgumentException("Incomplete unicode escape sequence \\u" + value.substring(start));
+        }
+
+        var result = 0;
+        for (int i = start; i < end; i++) {
+            var digit = Character.digit(value.charAt(i), 16);
+            if (digit == -1) {
+                throw new IllegalArgumentException("Invalid unicode escape sequence \\u" + value.substring(start, end));
+            }
+            result = result * 16 + digit;
+        }
+        return (char) result;
+    }
+}
@@ -3,6 +3,7 @@ package eu.jonahbauer.android.preference.annotations.processor.model;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.TypeName;
+import eu.jonahbauer.android.preference.annotations.processor.ClassNames;
 import lombok.Data;
 import lombok.experimental.Delegate;
 
@@ -14,6 +15,7 @@ import javax.lang.model.type.PrimitiveType;
 import javax.lang.model.type.TypeMirror;
 import javax.tools.Diagnostic;
 import java.util.Arrays;
+import java.util.Map;
 
 @Data
 public final class Context {
@@ -24,8 +26,24 @@ public final class Context {
     private TypeName r;
     private ClassName root;
     private FieldSpec sharedPreferences;
+    private FieldSpec resources;
+    private PendingEditorSpec pendingEditor;
+    private DeferredWritesSpec deferredWrites;
+    private SharedSerializersSpec sharedSerializers;
     private boolean fluent;
     private boolean editor;
+    private boolean snapshot;
+    private boolean listeners;
+    private boolean publishers;
+    private boolean cache;
+    private boolean skipUnchangedWrites;
+    private boolean update;
+    private boolean lazyKeys;
+    private boolean lazyGroups;
+    private boolean lazySerializers;
+    private boolean store;
+    private boolean slots;
+    private Map<String, String> strings;
 
     /**
      * Checks whether the given type and class are the same after type erasure.
@@ -101,4 +119,27 @@ public final class Context {
     public void error(String message, Object...args) {
         env.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format(message, args), element);
     }
+
+    /**
+     * Returns the type through which the generated code accesses the preferences.
+     * @see eu.jonahbauer.android.preference.annotations.Preferences#store()
+     */
+    public ClassName getStoreType() {
+        return store ? ClassNames.PREFERENCE_STORE : ClassNames.SHARED_PREFERENCES;
+    }
+
+    public ClassName getStoreEditorType() {
+        return store ? ClassNames.PREFERENCE_STORE_EDITOR : ClassNames.SHARED_PREFERENCES_EDITOR;
+    }
+
+    public ClassName getStoreListenerType() {
+        return store ? ClassNames.PREFERENCE_STORE_LISTENER : ClassNames.ON_SHARED_PREFERENCE_CHANGE_LISTENER;
+    }
+
+    /**
+     * Returns the name of the method registering a listener of the {@linkplain #getStoreListenerType() listener type}.
+     */
+    public String getRegisterListenerMethod() {
+        return store ? "registerOnChangeListener" : "registerOnSharedPreferenceChangeListener";
+    }
 }
@@ -0,0 +1,80 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.processor.StringUtils;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * The methods of a counter preference. Increments are collected in the {@linkplain WritePolicySpec#getCounter()
+ * counter} of the write policy and added to the pending value when it is flushed.
+ * @see Preference#counter()
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class CounterSpec {
+    MethodSpec increment;
+    MethodSpec addAndGet;
+
+    /**
+     * @param preference a counter preference whose write policy and getter have been created
+     * @param window the delay after which the collected increments are written
+     */
+    public static CounterSpec create(Context context, PreferenceSpec preference, long window, String description) {
+        var increment = increment(context.getDeferredWrites(), preference, window, description);
+        var addAndGet = addAndGet(preference, increment, description);
+        return new CounterSpec(increment, addAndGet);
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        builder.addMethod(increment);
+        builder.addMethod(addAndGet);
+    }
+
+    /**
+     * Creates a method adding a delta to a counter without acquiring a lock unless a write has to be scheduled.
+     */
+    private static MethodSpec increment(DeferredWritesSpec deferredWrites, PreferenceSpec preference, long window, String description) {
+        var writePolicy = preference.getWritePolicy();
+        var scheduled = writePolicy.getScheduled();
+        var builder = MethodSpec.methodBuilder("increment" + StringUtils.capitalize(preference.getName()))
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(TypeName.get(preference.getSerializedType()), "delta")
+                .addStatement("$N.add(delta)", writePolicy.getCounter());
+        if (scheduled != null) {
+            builder.beginControlFlow("if (!$N)", scheduled)
+                    .addStatement("boolean schedule")
+                    .beginControlFlow("synchronized (this)")
+                    .addStatement("schedule = !$N", scheduled)
+                    .addStatement("$N = true", scheduled)
+                    .endControlFlow()
+                    .addCode("if (schedule) ")
+                    .addCode(deferredWrites.schedule(CodeBlock.of("this::$N", writePolicy.getFlush()), window))
+                    .endControlFlow();
+        }
+        if (!description.isEmpty()) builder.addJavadoc("Adds {@code delta} to $L", description);
+        return builder.build();
+    }
+
+    /**
+     * Creates a method adding a delta to a counter and returning the new value.
+     */
+    private static MethodSpec addAndGet(PreferenceSpec preference, MethodSpec increment, String description) {
+        var type = TypeName.get(preference.getSerializedType());
+        var builder = MethodSpec.methodBuilder("addAndGet" + StringUtils.capitalize(preference.getName()))
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(type, "delta")
+                .returns(type)
+                .addStatement("$N(delta)", increment)
+                .addStatement("return $N()", preference.getGetter());
+        if (!description.isEmpty()) builder.addJavadoc("Adds {@code delta} to $L and returns the new value", description);
+        return builder.build();
+    }
+}
@@ -0,0 +1,80 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.*;
+import eu.jonahbauer.android.preference.annotations.processor.ClassNames;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * The executor on which the pending values of preferences with a
+ * {@linkplain eu.jonahbauer.android.preference.annotations.WritePolicy#DEBOUNCED debounced} write policy, the
+ * dirty {@linkplain PreferenceSlotsSpec slots} and the changes staged in the {@linkplain PendingEditorSpec pending
+ * editor} are written, so that a preferences class never starts more than one thread.
+ * @see eu.jonahbauer.android.preference.annotations.Preference#writePolicy()
+ */
+@Value
+public class DeferredWritesSpec {
+    static final String FLUSH_PENDING_METHOD_NAME = "flushPending";
+
+    ClassName root;
+
+    /**
+     * Whether there are preferences whose values are not written immediately and which are written by the
+     * {@value #FLUSH_PENDING_METHOD_NAME} method.
+     */
+    boolean pending;
+    FieldSpec executor;
+    MethodSpec schedule;
+
+    /**
+     * @param pending whether there are preferences whose values are not written immediately
+     * @param scheduled whether anything is written asynchronously
+     */
+    public static DeferredWritesSpec create(Context context, boolean pending, boolean scheduled) {
+        var root = context.getRoot();
+        if (!scheduled) return new DeferredWritesSpec(root, pending, null, null);
+
+        var executor = FieldSpec.builder(ClassNames.SCHEDULED_EXECUTOR_SERVICE, "writeExecutor", Modifier.PRIVATE, Modifier.STATIC).build();
+        var schedule = MethodSpec.methodBuilder("schedule$")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.SYNCHRONIZED)
+                .addParameter(Runnable.class, "task")
+                .addParameter(long.class, "delay")
+                .beginControlFlow("if ($N == null)", executor)
+                .addCode("$N = $T.newSingleThreadScheduledExecutor(runnable -> {\n", executor, ClassNames.EXECUTORS)
+                .addCode("$>")
+                .addStatement("var thread = new $T(runnable, $S)", Thread.class, root.simpleName() + "-write")
+                .addStatement("thread.setDaemon(true)")
+                .addStatement("return thread")
+                .addCode("$<")
+                .addStatement("})")
+                .endControlFlow()
+                .addStatement("$N.schedule(task, delay, $T.MILLISECONDS)", executor, ClassNames.TIME_UNIT)
+                .build();
+
+        return new DeferredWritesSpec(root, pending, executor, schedule);
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        if (executor != null) builder.addField(executor);
+        if (schedule != null) builder.addMethod(schedule);
+    }
+
+    /**
+     * Returns a statement scheduling the given task to be run after the given delay.
+     */
+    public CodeBlock schedule(CodeBlock task, long delay) {
+        return CodeBlock.builder()
+                .addStatement("$T.$N($L, $LL)", root, schedule, task, delay)
+                .build();
+    }
+
+    /**
+     * Returns a statement writing the pending values of all preferences.
+     */
+    public CodeBlock flushPending() {
+        return CodeBlock.builder()
+                .addStatement("$T.$N()", root, FLUSH_PENDING_METHOD_NAME)
+                .build();
+    }
+}
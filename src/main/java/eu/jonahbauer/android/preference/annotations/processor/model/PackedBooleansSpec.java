@@ -0,0 +1,124 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.TypeSpec;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assigns a bit in one of several backing {@code long} preferences to every boolean preference of a group. The keys of
+ * the backing preferences are resolved from string resources just like the keys of all other preferences.
+ * @see eu.jonahbauer.android.preference.annotations.PreferenceGroup#packBooleans()
+ */
+public final class PackedBooleansSpec {
+    private final Context context;
+    private final String prefix;
+    private final String suffix;
+    private final FieldSpec lock;
+    private final List<FieldSpec> keys = new ArrayList<>();
+    private final List<String> resources = new ArrayList<>();
+    private final List<FieldSpec> defaults = new ArrayList<>();
+    private final List<Long> defaultValues = new ArrayList<>();
+    private int size;
+
+    /**
+     * @param prefix the prefix of the names of the string resources containing the keys of the backing preferences
+     * @param suffix the suffix of the names of the string resources containing the keys of the backing preferences
+     */
+    public PackedBooleansSpec(Context context, String prefix, String suffix) {
+        this.context = context;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.lock = FieldSpec.builder(Object.class, "packedLock", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", Object.class)
+                .build();
+    }
+
+    /**
+     * Assigns the next free bit to a boolean preference.
+     * @param defaultValue whether the bit is set by default
+     * @return the bit or {@code null} if the string resource containing the key of the backing preference could not
+     * be found
+     */
+    public Bit allocate(boolean defaultValue) {
+        var index = size / Long.SIZE;
+        var mask = 1L << (size % Long.SIZE);
+
+        if (index == keys.size()) {
+            var resource = prefix + "packed_booleans_" + index + suffix;
+            var key = PreferenceSpec.key(context, "packedKey$" + index, resource);
+            if (key == null) return null;
+
+            keys.add(key);
+            resources.add(resource);
+            defaults.add(FieldSpec.builder(long.class, "packedDefault$" + index, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL).build());
+            defaultValues.add(0L);
+        }
+        if (defaultValue) {
+            defaultValues.set(index, defaultValues.get(index) | mask);
+        }
+        size++;
+
+        var key = keys.get(index);
+        var keyExpression = context.isLazyKeys() ? CodeBlock.of("$N()", key) : CodeBlock.of("$N", key);
+        return new Bit(index, CodeBlock.of("0x$LL", Long.toHexString(mask)), key, keyExpression, defaults.get(index), lock);
+    }
+
+    /**
+     * @param constructor the constructor code of the group in which the keys are resolved if they have neither been
+     *                    inlined nor are resolved lazily
+     * @param resources the field holding the {@code Resources} from which the keys are resolved lazily
+     */
+    public void apply(TypeSpec.Builder builder, CodeBlock.Builder constructor, FieldSpec resources) {
+        if (size == 0) return;
+
+        builder.addField(lock);
+        for (int i = 0; i < keys.size(); i++) {
+            var key = keys.get(i);
+            builder.addField(key);
+            if (context.getStrings() != null) {
+                // key has been inlined
+            } else if (context.isLazyKeys()) {
+                builder.addMethod(PreferenceGroupSpec.lazyKey(context, key, resources, this.resources.get(i)));
+            } else {
+                constructor.addStatement("$N = resources.getString($T.string.$N)", key, context.getR(), this.resources.get(i));
+            }
+            // the default values are only known after all bits have been assigned
+            builder.addField(defaults.get(i).toBuilder()
+                    .initializer("0x$LL", Long.toHexString(defaultValues.get(i)))
+                    .build());
+        }
+    }
+
+    /**
+     * A bit in a backing {@code long} preference. Read-modify-write operations on the backing preferences must hold
+     * the {@linkplain #getLock() lock}.
+     */
+    @Value
+    public static class Bit {
+        int index;
+        CodeBlock mask;
+        FieldSpec key;
+        CodeBlock keyExpression;
+        FieldSpec defaults;
+        FieldSpec lock;
+
+        /**
+         * Returns an expression evaluating to the stored backing value.
+         */
+        public CodeBlock read(FieldSpec sharedPreferences) {
+            return CodeBlock.of("$N.getLong($L, $N)", sharedPreferences, keyExpression, defaults);
+        }
+
+        /**
+         * Returns an expression evaluating to {@code true} iff the bit is set in the stored backing value.
+         */
+        public CodeBlock get(FieldSpec sharedPreferences) {
+            return CodeBlock.of("(($L & $L) != 0)", read(sharedPreferences), mask);
+        }
+    }
+}
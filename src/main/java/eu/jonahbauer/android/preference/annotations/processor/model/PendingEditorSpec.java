@@ -0,0 +1,123 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.*;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * A shared editor in which the generated setters stage their changes when write coalescing is enabled.
+ * @see eu.jonahbauer.android.preference.annotations.Preferences#coalesceWrites()
+ */
+@Value
+public class PendingEditorSpec {
+    ClassName root;
+    FieldSpec field;
+    MethodSpec accessor;
+    MethodSpec flush;
+
+    /**
+     * @param window the delay after which staged changes are applied. The changes are applied on the executor of the
+     *               {@linkplain Context#getDeferredWrites() deferred writes}, which must have been created before.
+     */
+    public static PendingEditorSpec create(Context context, long window) {
+        var root = context.getRoot();
+        var sharedPreferences = context.getSharedPreferences();
+
+        var field = FieldSpec.builder(context.getStoreEditorType(), "pendingEditor", Modifier.PRIVATE, Modifier.STATIC, Modifier.VOLATILE).build();
+
+        var deferredWrites = context.getDeferredWrites();
+        var flush = flush(field, window, deferredWrites != null && deferredWrites.isPending());
+        var accessor = accessor(root, sharedPreferences, field, deferredWrites, flush, window);
+
+        return new PendingEditorSpec(root, field, accessor, flush);
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        builder.addField(field);
+        builder.addMethod(accessor);
+        builder.addMethod(flush);
+    }
+
+    /**
+     * Returns an expression evaluating to the pending editor. The expression must only be evaluated while holding
+     * the lock on the preferences class.
+     */
+    public CodeBlock editor() {
+        return CodeBlock.of("$T.$N()", root, accessor);
+    }
+
+    /**
+     * Returns a condition that is {@code true} iff there are no pending changes.
+     */
+    public CodeBlock isEmpty() {
+        return CodeBlock.of("$T.$N == null", root, field);
+    }
+
+    /**
+     * Returns a statement that flushes the pending editor if there are any pending changes.
+     */
+    public CodeBlock flushIfPending() {
+        return CodeBlock.builder()
+                .addStatement("if ($T.$N != null) $T.$N()", root, field, root, flush)
+                .build();
+    }
+
+    /**
+     * Returns a statement that discards all pending changes.
+     */
+    public CodeBlock discard() {
+        return CodeBlock.builder()
+                .beginControlFlow("synchronized ($T.class)", root)
+                .addStatement("$N = null", field)
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * @param pending whether there is a {@code flushPending} method writing the values of all preferences that have
+     *                not yet been written, which includes the staged changes
+     */
+    private static MethodSpec flush(FieldSpec field, long window, boolean pending) {
+        var builder = MethodSpec.methodBuilder("flush")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.SYNCHRONIZED)
+                .beginControlFlow("if ($N != null)", field)
+                .addStatement("$N.apply()", field)
+                .addStatement("$N = null", field)
+                .endControlFlow()
+                .addJavadoc("Applies all changes that have been staged by the generated setters.\n");
+        if (window > 0) {
+            builder.addJavadoc("Staged changes are applied automatically $L milliseconds after the first change,\n", window);
+        } else {
+            builder.addJavadoc("Staged changes are applied automatically\n");
+        }
+        builder.addJavadoc("before reading any preference and before applying an {@code Editor}.\n");
+        if (pending) {
+            builder.addJavadoc("Unlike {@link #$N()}, this method does not write the values of preferences that\n", DeferredWritesSpec.FLUSH_PENDING_METHOD_NAME)
+                    .addJavadoc("have not yet been written due to their write policy or because they are stored in slots.\n");
+        }
+        return builder.addJavadoc("@see $T#apply()", field.type)
+                .build();
+    }
+
+    private static MethodSpec accessor(ClassName root, FieldSpec sharedPreferences, FieldSpec field, DeferredWritesSpec deferredWrites, MethodSpec flush, long window) {
+        var code = CodeBlock.builder()
+                .beginControlFlow("if ($N == null)", field)
+                .addStatement("$N = $N.edit()", field, sharedPreferences);
+
+        if (window > 0) {
+            code.add(deferredWrites.schedule(CodeBlock.of("$T::$N", root, flush), window));
+        }
+
+        code.endControlFlow()
+                .addStatement("return $N", field);
+
+        return MethodSpec.methodBuilder("pendingEditor$")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(field.type)
+                .addJavadoc("Returns the editor in which changes are staged until the next {@link #$N()}.\n", flush)
+                .addJavadoc("Must only be called while holding the lock on {@code $T.class}.\n", root)
+                .addCode(code.build())
+                .build();
+    }
+}
@@ -1,46 +1,70 @@
 package eu.jonahbauer.android.preference.annotations.processor.model;
 
 import com.squareup.javapoet.*;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
 import eu.jonahbauer.android.preference.annotations.processor.ClassNames;
 import eu.jonahbauer.android.preference.annotations.processor.StringUtils;
 import lombok.Value;
 
 import javax.lang.model.element.Modifier;
 import javax.lang.model.type.TypeKind;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @Value
 public class PreferenceEditorSpec {
     private static final String EDITOR_CLASS_NAME = "Editor";
     private static final String EDITOR_FIELD_NAME = "editor";
 
-    private static final Map<String, String> SETTER = Map.of(
-            "boolean", "$N.putBoolean($N, serializedValue)",
-            "byte", "$N.putInt($N, (int) serializedValue)",
-            "char", "$N.putInt($N, (int) serializedValue)",
-            "short", "$N.putInt($N, (int) serializedValue)",
-            "int", "$N.putInt($N, (int) serializedValue)",
-            "long", "$N.putLong($N, serializedValue)",
-            "float", "$N.putFloat($N, serializedValue)",
-            "double", "$N.putLong($N, Double.doubleToRawLongBits(serializedValue))",
-            "java.lang.String", "$N.putString($N, serializedValue)",
-            "java.util.Set<java.lang.String>", "$N.putStringSet($N, serializedValue)"
-    );
-
+    ClassName name;
     MethodSpec accessor;
     TypeSpec type;
 
-    public static PreferenceEditorSpec create(Context context, ClassName parent, List<PreferenceSpec> preferences) {
+    /**
+     * The lock that must be held while merging and applying the changes of packed boolean preferences or
+     * {@code null} if there are no packed boolean preferences.
+     */
+    FieldSpec lock;
+
+    /**
+     * A method merging the changes of packed boolean preferences into the underlying editor or {@code null} if there
+     * are no packed boolean preferences.
+     */
+    MethodSpec merge;
+
+    /**
+     * A method assigning the values of memory-only preferences or {@code null} if there are no memory-only
+     * preferences. The method must be called after the underlying editor has been applied.
+     */
+    MethodSpec assign;
+
+    /**
+     * A method reloading the slots and invalidating the cached values of all modified preferences or {@code null} if
+     * none of the preferences is stored in a slot or cached. The method must be called after the underlying editor
+     * has been applied, since the change listener may be notified asynchronously, e.g. when the editor is applied off
+     * the main thread.
+     */
+    MethodSpec refresh;
+
+    /**
+     * @param reload the method reloading the slots of the group or {@code null}
+     * @param invalidate the method invalidating the cached values of the group or {@code null}
+     */
+    public static PreferenceEditorSpec create(Context context, ClassName parent, List<PreferenceSpec> preferences, MethodSpec reload, MethodSpec invalidate) {
         var name = parent.nestedClass(EDITOR_CLASS_NAME);
 
         var editor = FieldSpec
-                .builder(ClassNames.SHARED_PREFERENCES_EDITOR, EDITOR_FIELD_NAME, Modifier.PRIVATE, Modifier.FINAL)
-                .initializer("sharedPreferences.edit()")
+                .builder(context.getStoreEditorType(), EDITOR_FIELD_NAME, Modifier.PRIVATE, Modifier.FINAL)
                 .build();
 
+        // the underlying editor may be shared with the editors of other groups
         var constructor = MethodSpec.constructorBuilder()
                 .addModifiers(Modifier.PRIVATE)
+                .addParameter(context.getStoreEditorType(), "editor")
+                .addStatement("this.$N = editor", editor)
                 .build();
 
         var type = TypeSpec.classBuilder(name)
@@ -48,15 +72,189 @@ public class PreferenceEditorSpec {
                 .addMethod(constructor)
                 .addField(editor);
 
+        // bits to be set and cleared in the backing preferences of packed booleans
+        var packed = new LinkedHashMap<Integer, PackedBits>();
+        for (PreferenceSpec preference : preferences) {
+            var bit = preference.getBit();
+            if (bit == null) continue;
+            packed.computeIfAbsent(bit.getIndex(), index -> {
+                var set = FieldSpec.builder(long.class, "packedSet$" + index, Modifier.PRIVATE).build();
+                var clear = FieldSpec.builder(long.class, "packedClear$" + index, Modifier.PRIVATE).build();
+                type.addField(set).addField(clear);
+                return new PackedBits(bit, set, clear);
+            });
+        }
+
+        // values of memory-only preferences are assigned when the editor is applied
+        var assign = MethodSpec.methodBuilder("assign$").addModifiers(Modifier.PRIVATE);
+        var memory = false;
+
+        // slots and cached values of modified preferences are refreshed when the editor is applied
+        var refresh = MethodSpec.methodBuilder("refresh$").addModifiers(Modifier.PRIVATE);
+        var refreshed = false;
+
         for (PreferenceSpec preference : preferences) {
-            var setter = setter(context, name, preference, editor);
+            FieldSpec modified = null;
+            if (preference.getUnchanged() != null || preference.getMemory() != null || preference.getSlot() != null || preference.getCache() != null) {
+                modified = FieldSpec.builder(boolean.class, "modified$" + preference.getIndex(), Modifier.PRIVATE).build();
+                type.addField(modified);
+            }
+
+            if (preference.getSlot() != null) {
+                refresh.addStatement("if ($N) $N($L)", modified, reload, preference.getStorageKeyExpression());
+                refreshed = true;
+            }
+            if (preference.getCache() != null) {
+                refresh.addStatement("if ($N) $N($L)", modified, invalidate, preference.getStorageKeyExpression());
+                refreshed = true;
+            }
+
+            if (preference.getMemory() != null) {
+                var value = FieldSpec.builder(TypeName.get(preference.getDeserializedType()), "value$" + preference.getIndex(), Modifier.PRIVATE).build();
+                type.addField(value);
+                type.addMethod(memorySetter(context, name, preference, value, modified));
+                assign.addStatement("if ($N) $T.this.$N($N)", modified, parent, preference.getSetter(), value);
+                memory = true;
+                continue;
+            }
+
+            var bit = preference.getBit();
+            var setter = setter(context, name, preference, editor, modified, bit != null ? packed.get(bit.getIndex()) : null);
             if (setter != null) type.addMethod(setter);
         }
 
-        type.addMethod(apply(editor));
-        type.addMethod(commit(editor));
+        FieldSpec lock = null;
+        MethodSpec merge = null;
+        if (!packed.isEmpty()) {
+            lock = packed.values().iterator().next().getBit().getLock();
+            merge = merge(context, editor, packed);
+            type.addMethod(merge);
+        }
+
+        MethodSpec assignMethod = null;
+        if (memory) {
+            assignMethod = assign.build();
+            type.addMethod(assignMethod);
+        }
+
+        MethodSpec refreshMethod = null;
+        if (refreshed) {
+            refreshMethod = refresh.build();
+            type.addMethod(refreshMethod);
+        }
+
+        var flush = flush(context, preferences);
+        type.addMethod(apply(context, editor, lock, merge, flush, refreshMethod, assignMethod));
+        type.addMethod(commit(context, editor, lock, merge, flush, refreshMethod, assignMethod));
+
+        return new PreferenceEditorSpec(name, accessor(context, name), type.build(), lock, merge, assignMethod, refreshMethod);
+    }
+
+    /**
+     * Creates an editor for the preferences class providing access to the editors of every group. All group editors
+     * of groups backed by the same {@linkplain PreferenceGroup#file() file} share a single underlying editor, so that
+     * changes spanning multiple groups are written atomically per file.
+     */
+    public static PreferenceEditorSpec create(Context context, List<PreferenceGroupSpec> groups) {
+        var root = context.getRoot();
+        var name = root.nestedClass(EDITOR_CLASS_NAME);
+
+        var type = TypeSpec.classBuilder(name)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
+
+        // one editor per file
+        var files = groups.stream().map(PreferenceGroupSpec::getSharedPreferences).distinct().collect(Collectors.toList());
+        if (files.isEmpty()) files = List.of(context.getSharedPreferences());
+        var editors = new LinkedHashMap<FieldSpec, FieldSpec>();
+        for (FieldSpec file : files) {
+            var editor = FieldSpec
+                    .builder(context.getStoreEditorType(), editors.isEmpty() ? EDITOR_FIELD_NAME : EDITOR_FIELD_NAME + "$" + editors.size(), Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("$N.edit()", file)
+                    .build();
+            type.addField(editor);
+            editors.put(file, editor);
+        }
+
+        // the group editors are created on first use
+        var merge = CodeBlock.builder();
+        var refresh = CodeBlock.builder();
+        var assign = CodeBlock.builder();
+        var locks = new ArrayList<CodeBlock>();
+        for (PreferenceGroupSpec group : groups) {
+            var groupEditor = group.getEditor();
+            var groupName = group.getName().simpleName();
+            var editor = editors.get(group.getSharedPreferences());
+            var field = FieldSpec.builder(groupEditor.getName(), groupName, Modifier.PRIVATE).build();
+            type.addField(field);
+            type.addMethod(MethodSpec.methodBuilder(StringUtils.getGetterName(groupName, false, context.isFluent()))
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(field.type)
+                    .addJavadoc("Returns an editor for the preferences of {@link $T#$N()} whose changes are committed by\n", root, group.getAccessor())
+                    .addJavadoc("this editor. The returned editor should not be committed on its own.\n")
+                    .addStatement("if ($N == null) $N = $T.$N().new $L($N)", field, field, root, group.getAccessor(), EDITOR_CLASS_NAME, editor)
+                    .addStatement("return $N", field)
+                    .build()
+            );
+
+            if (groupEditor.getMerge() != null) {
+                merge.addStatement("if ($N != null) $N.$N()", field, field, groupEditor.getMerge());
+                locks.add(CodeBlock.of("$T.$N().$N", root, group.getAccessor(), groupEditor.getLock()));
+            }
+
+            if (groupEditor.getRefresh() != null) {
+                refresh.addStatement("if ($N != null) $N.$N()", field, field, groupEditor.getRefresh());
+            }
+
+            if (groupEditor.getAssign() != null) {
+                assign.addStatement("if ($N != null) $N.$N()", field, field, groupEditor.getAssign());
+            }
+        }
+
+        var mergeCode = merge.build();
+        // slots and cached values are refreshed before the memory-only preferences notify the listeners
+        var assignCode = refresh.add(assign.build()).build();
+        var apply = CodeBlock.builder().add(mergeCode);
+        editors.values().forEach(editor -> apply.addStatement("$N.apply()", editor));
+        // all editors are committed even if one of them fails
+        var commit = CodeBlock.builder().add(mergeCode);
+        var result = editors.values().stream().map(editor -> CodeBlock.of("$N.commit()", editor)).collect(CodeBlock.joining(" & "));
+        var commitMethod = MethodSpec.methodBuilder("commit")
+                .addModifiers(Modifier.PUBLIC).returns(boolean.class)
+                .addCode(flush(context));
+        if (assignCode.isEmpty()) {
+            commitMethod.addCode(withLocks(locks, commit.addStatement("return $L", result).build()));
+        } else {
+            commitMethod.addStatement("boolean result")
+                    .addCode(withLocks(locks, commit.addStatement("result = $L", result).build()))
+                    .addCode(assignCode)
+                    .addStatement("return result");
+        }
+        type.addMethod(MethodSpec.methodBuilder("apply").addModifiers(Modifier.PUBLIC)
+                .addCode(flush(context))
+                .addCode(withLocks(locks, apply.build()))
+                .addCode(assignCode)
+                .addJavadoc("Commit the changes of all group editors obtained from this editor at once.\n")
+                .addJavadoc("@see $T#apply()", context.getStoreEditorType())
+                .build()
+        );
+        type.addMethod(commitMethod
+                .addJavadoc("Commit the changes of all group editors obtained from this editor at once.\n")
+                .addJavadoc("@see $T#commit()", context.getStoreEditorType())
+                .build()
+        );
+
+        var accessor = MethodSpec.methodBuilder("edit")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(name)
+                .addJavadoc("Create a new Editor for all preference groups, through which you can make modifications spanning multiple\n")
+                .addJavadoc("groups and atomically commit those changes back to the SharedPreferences object.\n")
+                .addJavadoc("@throws $T if this preference class has not yet been initialized.\n", ClassNames.ILLEGAL_STATE_EXCEPTION)
+                .addJavadoc("@see $T#edit()", context.getStoreType());
+        PreferencesSpec.addInitCheck(accessor, context.getSharedPreferences());
+        accessor.addStatement("return new $T()", name);
 
-        return new PreferenceEditorSpec(accessor(name), type.build());
+        return new PreferenceEditorSpec(name, accessor.build(), type.build(), null, null, null, null);
     }
 
     public void apply(TypeSpec.Builder builder) {
@@ -64,48 +262,199 @@ public class PreferenceEditorSpec {
         builder.addType(type);
     }
 
-    private static MethodSpec setter(Context context, ClassName name, PreferenceSpec preference, FieldSpec editor) {
+    /**
+     * Creates a setter for the given preference.
+     * @param modified a field tracking whether the preference has already been modified by this editor or
+     *                 {@code null} if unchanged writes should not be skipped
+     * @param packed the fields tracking the bits to be set and cleared for a packed boolean preference or
+     *               {@code null}
+     */
+    private static MethodSpec setter(Context context, ClassName name, PreferenceSpec preference, FieldSpec editor, FieldSpec modified, PackedBits packed) {
         var serializedType = preference.getSerializedType();
         if (serializedType.getKind() == TypeKind.VOID) return null;
 
         var deserializedType = preference.getDeserializedType();
-        var serializer = preference.getSerializer();
-        var key = preference.getKey();
+        var serializer = preference.getSerializerExpression();
         var methodName = StringUtils.getSetterName(preference.getName(), context.isFluent());
 
-        return MethodSpec.methodBuilder(methodName)
+        var builder = MethodSpec.methodBuilder(methodName)
                 .addModifiers(Modifier.PUBLIC)
                 .returns(name)
                 .addParameter(TypeName.get(deserializedType), "value")
-                .addStatement(serializer == null ? "var serializedValue = value" : "var serializedValue = $N.serialize(value)", serializer)
-                .addStatement(SETTER.get(serializedType.toString()), editor, key)
-                .addStatement("return this")
-                .build();
+                .addStatement(serializer == null ? "var serializedValue = value" : "var serializedValue = $L.$N(value)", preference.getSerializerExpression(), preference.getSerializeMethod());
+
+        if (modified != null && preference.getUnchanged() != null) {
+            // a preference that has been modified by this editor must not be skipped since the stored value does
+            // not reflect the modification yet. the same goes for pending changes of coalescing setters.
+            var pendingEditor = context.getPendingEditor();
+            if (pendingEditor == null) {
+                builder.addStatement("if (!$N && $L) return this", modified, preference.getUnchanged());
+            } else {
+                builder.addStatement("if (!$N && $L && $L) return this", modified, pendingEditor.isEmpty(), preference.getUnchanged());
+            }
+        }
+        if (modified != null) builder.addStatement("$N = true", modified);
+
+        if (packed != null) {
+            var mask = preference.getBit().getMask();
+            builder.beginControlFlow("if (serializedValue)")
+                    .addStatement("$N |= $L", packed.getSet(), mask)
+                    .addStatement("$N &= ~$L", packed.getClear(), mask)
+                    .nextControlFlow("else")
+                    .addStatement("$N |= $L", packed.getClear(), mask)
+                    .addStatement("$N &= ~$L", packed.getSet(), mask)
+                    .endControlFlow();
+        } else {
+            builder.addStatement(PreferenceSpec.PUT.get(serializedType.toString()), CodeBlock.of("$N", editor), preference.getKeyExpression());
+        }
+
+        return builder.addStatement("return this").build();
     }
 
-    private static MethodSpec apply(FieldSpec editor) {
+    /**
+     * Creates a method applying the editor. Slots are reloaded, cached values are invalidated and memory-only
+     * preferences are assigned afterwards without holding the lock, since reloading and invalidating acquire the
+     * groups lock and assigning notifies the listeners.
+     */
+    private static MethodSpec apply(Context context, FieldSpec editor, FieldSpec lock, MethodSpec merge, CodeBlock flush, MethodSpec refresh, MethodSpec assign) {
         return MethodSpec.methodBuilder("apply").addModifiers(Modifier.PUBLIC)
-                .addStatement("$N.apply()", editor)
+                .addCode(flush)
+                .addCode(withPacked(lock, merge, CodeBlock.builder().addStatement("$N.apply()", editor).build()))
+                .addCode(afterWrite(refresh, assign))
                 .addJavadoc("Commit your preferences changes back from this Editor to the {@code SharedPreferences} object it is editing. This atomically performs the requested modifications, replacing whatever is currently in the SharedPreferences. ")
-                .addJavadoc("\n@see $T#apply()", ClassNames.SHARED_PREFERENCES_EDITOR)
+                .addJavadoc("\n@see $T#apply()", context.getStoreEditorType())
                 .build();
     }
 
-    private static MethodSpec commit(FieldSpec editor) {
-        return MethodSpec.methodBuilder("commit")
+    private static MethodSpec commit(Context context, FieldSpec editor, FieldSpec lock, MethodSpec merge, CodeBlock flush, MethodSpec refresh, MethodSpec assign) {
+        var builder = MethodSpec.methodBuilder("commit")
                 .addModifiers(Modifier.PUBLIC).returns(boolean.class)
-                .addStatement("return $N.commit()", editor)
+                .addCode(flush);
+        if (refresh == null && assign == null) {
+            builder.addCode(withPacked(lock, merge, CodeBlock.builder().addStatement("return $N.commit()", editor).build()));
+        } else {
+            builder.addStatement("boolean result")
+                    .addCode(withPacked(lock, merge, CodeBlock.builder().addStatement("result = $N.commit()", editor).build()))
+                    .addCode(afterWrite(refresh, assign))
+                    .addStatement("return result");
+        }
+        return builder
                 .addJavadoc("Commit your preferences changes back from this Editor to the {@code SharedPreferences} object it is editing. This atomically performs the requested modifications, replacing whatever is currently in the SharedPreferences.")
-                .addJavadoc("\n@see $T#commit()", ClassNames.SHARED_PREFERENCES_EDITOR)
+                .addJavadoc("\n@see $T#commit()", context.getStoreEditorType())
+                .build();
+    }
+
+    /**
+     * Returns code reloading the slots, invalidating the cached values and assigning the memory-only preferences after
+     * the underlying editor has been applied.
+     */
+    private static CodeBlock afterWrite(MethodSpec refresh, MethodSpec assign) {
+        var code = CodeBlock.builder();
+        if (refresh != null) code.addStatement("$N()", refresh);
+        if (assign != null) code.addStatement("$N()", assign);
+        return code.build();
+    }
+
+    /**
+     * Creates a setter for the given memory-only preference staging the value until the editor is applied.
+     */
+    private static MethodSpec memorySetter(Context context, ClassName name, PreferenceSpec preference, FieldSpec value, FieldSpec modified) {
+        return MethodSpec.methodBuilder(StringUtils.getSetterName(preference.getName(), context.isFluent()))
+                .addModifiers(Modifier.PUBLIC)
+                .returns(name)
+                .addParameter(TypeName.get(preference.getDeserializedType()), "value")
+                .addStatement("this.$N = value", value)
+                .addStatement("this.$N = true", modified)
+                .addStatement("return this")
                 .build();
     }
 
-    private static MethodSpec accessor(ClassName name) {
+    /**
+     * Merges the bit updates of packed boolean preferences into the backing preferences before executing the given
+     * code. The lock is held until the changes have been written, so that concurrent setters cannot overwrite them.
+     */
+    private static CodeBlock withPacked(FieldSpec lock, MethodSpec merge, CodeBlock code) {
+        if (merge == null) return code;
+
+        return CodeBlock.builder()
+                .beginControlFlow("synchronized ($N)", lock)
+                .addStatement("$N()", merge)
+                .add(code)
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Executes the given code while holding all the given locks. The locks are always acquired in group order, so
+     * that concurrent root editors cannot deadlock.
+     */
+    private static CodeBlock withLocks(List<CodeBlock> locks, CodeBlock code) {
+        var builder = CodeBlock.builder();
+        locks.forEach(lock -> builder.beginControlFlow("synchronized ($L)", lock));
+        builder.add(code);
+        locks.forEach(lock -> builder.endControlFlow());
+        return builder.build();
+    }
+
+    /**
+     * Creates a method merging the bit updates of packed boolean preferences into the underlying editor. The
+     * {@linkplain #getLock() lock} must be held until the underlying editor has been applied.
+     */
+    private static MethodSpec merge(Context context, FieldSpec editor, Map<Integer, PackedBits> packed) {
+        var builder = MethodSpec.methodBuilder("merge$").addModifiers(Modifier.PRIVATE);
+        for (PackedBits bits : packed.values()) {
+            builder.addStatement(
+                    "if (($1N | $2N) != 0) $3N.putLong($4L, ($5L | $1N) & ~$2N)",
+                    bits.getSet(), bits.getClear(), editor, bits.getBit().getKeyExpression(), bits.getBit().read(context.getSharedPreferences())
+            );
+        }
+        return builder.build();
+    }
+
+    /**
+     * Flushes pending writes of coalescing setters and the pending values of all preferences, so that they cannot
+     * overwrite the changes made by this editor.
+     */
+    static CodeBlock flush(Context context) {
+        var deferredWrites = context.getDeferredWrites();
+        if (deferredWrites != null && deferredWrites.isPending()) return deferredWrites.flushPending();
+
+        var pendingEditor = context.getPendingEditor();
+        return pendingEditor == null ? CodeBlock.of("") : pendingEditor.flushIfPending();
+    }
+
+    /**
+     * Flushes pending writes of coalescing setters, the pending values of the given preferences and their dirty slots,
+     * so that they cannot overwrite the changes made by this editor.
+     */
+    static CodeBlock flush(Context context, List<PreferenceSpec> preferences) {
+        var code = CodeBlock.builder();
+        for (PreferenceSpec preference : preferences) {
+            if (preference.getWritePolicy() != null) code.addStatement("$N()", preference.getWritePolicy().getFlush());
+        }
+        if (preferences.stream().anyMatch(preference -> preference.getSlot() != null)) {
+            code.addStatement("$N()", PreferenceSlotsSpec.FLUSH_METHOD_NAME);
+        }
+        if (context.getPendingEditor() != null) code.add(context.getPendingEditor().flushIfPending());
+        return code.build();
+    }
+
+    /**
+     * The fields of an editor tracking the bits to be set and cleared in one backing preference of packed booleans.
+     */
+    @Value
+    private static class PackedBits {
+        PackedBooleansSpec.Bit bit;
+        FieldSpec set;
+        FieldSpec clear;
+    }
+
+    private static MethodSpec accessor(Context context, ClassName name) {
         return MethodSpec.methodBuilder("edit").addModifiers(Modifier.PUBLIC)
                 .returns(name)
-                .addStatement("return new $T()", name)
+                .addStatement("return new $T($N.edit())", name, context.getSharedPreferences())
                 .addJavadoc("Create a new Editor for these preferences, through which you can make modifications to the data in the preferences and atomically commit those changes back to the SharedPreferences object.")
-                .addJavadoc("\n@see $T#edit()", ClassNames.SHARED_PREFERENCES)
+                .addJavadoc("\n@see $T#edit()", context.getStoreType())
                 .build();
     }
 }
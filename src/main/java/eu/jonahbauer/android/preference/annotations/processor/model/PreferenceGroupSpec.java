@@ -8,12 +8,26 @@ import lombok.Value;
 
 import javax.lang.model.element.Modifier;
 import java.util.ArrayList;
+import java.util.List;
 
 @Value
 public class PreferenceGroupSpec {
     ClassName name;
     FieldSpec field;
+
+    /**
+     * The field holding the shared preferences backing this group.
+     * @see PreferenceGroup#file()
+     */
+    FieldSpec sharedPreferences;
     MethodSpec accessor;
+    MethodSpec reload;
+    MethodSpec invalidate;
+    MethodSpec flush;
+    MethodSpec discard;
+    MethodSpec dispatch;
+    MethodSpec publish;
+    PreferenceEditorSpec editor;
     TypeSpec type;
 
     public static PreferenceGroupSpec create(Context context, int index, PreferenceGroup group) {
@@ -23,17 +37,44 @@ public class PreferenceGroupSpec {
         var type = TypeSpec.classBuilder(name).addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
         var constructorCode = CodeBlock.builder();
 
+        // resources are kept until all keys have been resolved lazily
+        var resources = FieldSpec.builder(ClassNames.RESOURCES, "resources", Modifier.PRIVATE, Modifier.FINAL).build();
+        if (context.isLazyKeys()) {
+            type.addField(resources);
+            constructorCode.addStatement("this.$N = resources", resources);
+        }
+
+        var packed = group.packBooleans() ? new PackedBooleansSpec(context, group.prefix(), group.suffix()) : null;
+        var slots = context.isSlots() ? new PreferenceSlotsSpec(context) : null;
+
         var preferences = group.value();
         var preferenceSpecs = new ArrayList<PreferenceSpec>();
         for (int i = 0; i < preferences.length; i++) {
-            var spec = PreferenceSpec.create(context, i, preferences[i]);
+            var key = group.prefix() + preferences[i].name() + group.suffix();
+            var spec = PreferenceSpec.create(context, i, preferences[i], key, packed, slots, group.memoryOnly());
             if (spec == null) continue;
 
             preferenceSpecs.add(spec);
             spec.apply(type);
 
-            var key = group.prefix() + preferences[i].name() + group.suffix();
-            constructorCode.addStatement("$N = resources.getString($T.string.$N)", spec.getKey(), context.getR(), key);
+            if (context.getStrings() != null) {
+                // key has been inlined
+                continue;
+            } else if (context.isLazyKeys()) {
+                type.addMethod(lazyKey(context, spec.getKey(), resources, key));
+            } else {
+                constructorCode.addStatement("$N = resources.getString($T.string.$N)", spec.getKey(), context.getR(), key);
+            }
+        }
+
+        if (packed != null) packed.apply(type, constructorCode, resources);
+        if (slots != null) slots.apply(type, preferenceSpecs);
+
+        var reload = reload(preferenceSpecs);
+        if (reload != null) {
+            type.addMethod(reload);
+            // the keys must have been resolved before
+            constructorCode.addStatement("$N(null)", reload);
         }
 
         // constructor
@@ -44,15 +85,64 @@ public class PreferenceGroupSpec {
                 .build()
         );
 
+        var invalidate = invalidate(preferenceSpecs);
+        if (invalidate != null) {
+            type.addMethod(invalidate);
+        }
+
+        var flush = flush(preferenceSpecs, slots);
+        var discard = discard(preferenceSpecs, slots);
+        if (flush != null) {
+            type.addMethod(flush);
+            type.addMethod(discard);
+        }
+
+        if (invalidate != null || flush != null || preferenceSpecs.stream().anyMatch(preference -> preference.getDeserializedDefault() != null)) {
+            type.addField(PreferenceSpec.NO_VALUE);
+        }
+
         PreferenceKeysSpec.create(context, name, preferenceSpecs).apply(type);
 
+        PreferenceEditorSpec editor = null;
         if (context.isEditor()) {
-            PreferenceEditorSpec.create(context, name, preferenceSpecs).apply(type);
+            editor = PreferenceEditorSpec.create(context, name, preferenceSpecs, reload, invalidate);
+            editor.apply(type);
+        }
+
+        if (context.isSnapshot()) {
+            PreferenceSnapshotSpec.create(context, name, preferenceSpecs).apply(type);
         }
 
-        var field = field(index, name);
-        var accessor = accessor(context, group.name(), field, context.getSharedPreferences());
-        return new PreferenceGroupSpec(name, field, accessor, type.build());
+        PreferenceIndexSpec indexSpec = null;
+        if (context.isListeners() || context.isPublishers()) {
+            indexSpec = PreferenceIndexSpec.create(context, preferenceSpecs);
+            indexSpec.apply(type);
+        }
+
+        MethodSpec dispatch = null;
+        if (context.isListeners()) {
+            var listener = PreferenceListenerSpec.create(name, preferenceSpecs, indexSpec);
+            listener.apply(type);
+            dispatch = listener.getDispatch();
+        }
+
+        MethodSpec publish = null;
+        if (context.isPublishers()) {
+            var publisher = PreferencePublisherSpec.create(context, preferenceSpecs, indexSpec);
+            publisher.apply(type);
+            publish = publisher.getPublish();
+        }
+
+        var field = field(context, index, name);
+        MethodSpec accessor;
+        if (context.isLazyGroups()) {
+            var holder = holder(context, name, field);
+            type.addType(holder);
+            accessor = lazyAccessor(context, group.name(), name.nestedClass(holder.name));
+        } else {
+            accessor = accessor(context, group.name(), field, context.getSharedPreferences());
+        }
+        return new PreferenceGroupSpec(name, field, context.getSharedPreferences(), accessor, reload, invalidate, flush, discard, dispatch, publish, editor, type.build());
     }
 
     public void apply(TypeSpec.Builder builder) {
@@ -69,13 +159,160 @@ public class PreferenceGroupSpec {
         } else if (!group.suffix().isEmpty() && !group.suffix().matches("\\p{javaJavaIdentifierPart}+")) {
             context.error("Illegal preference group suffix: %s", group.suffix());
             return false;
+        } else if (group.packBooleans() && context.getPendingEditor() != null) {
+            // packed setters need to read the current value, which is not up-to-date while writes are pending
+            context.error("Packed booleans are not supported together with write coalescing: %s", group.name());
+            return false;
         }
 
         return true;
     }
 
-    private static FieldSpec field(int index, ClassName name) {
-        return FieldSpec.builder(name, "group$" + index, Modifier.PRIVATE, Modifier.STATIC).build();
+    /**
+     * Creates a method that reads the value of the preference with the given key or of all preferences when the key is
+     * {@code null} from the {@code SharedPreferences} into its slot. Dirty slots are skipped, since their values have
+     * not yet been written.
+     * @return the method or {@code null} if none of the preferences is stored in a slot
+     */
+    private static MethodSpec reload(List<PreferenceSpec> preferences) {
+        var builder = MethodSpec.methodBuilder("reload$")
+                .addModifiers(Modifier.PRIVATE, Modifier.SYNCHRONIZED)
+                .addParameter(String.class, "key");
+
+        var empty = true;
+        for (PreferenceSpec preference : preferences) {
+            if (preference.getSlot() == null) continue;
+
+            var slot = preference.getSlot();
+            builder.addStatement("if ((key == null || key.equals($L)) && !$L) $L", preference.getStorageKeyExpression(), slot.isDirty(), slot.set(preference.getLoad()));
+            empty = false;
+        }
+
+        return empty ? null : builder.build();
+    }
+
+    /**
+     * Creates a method that invalidates the cached value of the preference with the given key or of all preferences
+     * when the key is {@code null}.
+     * @return the method or {@code null} if none of the preferences is cached
+     */
+    private static MethodSpec invalidate(List<PreferenceSpec> preferences) {
+        var builder = MethodSpec.methodBuilder("invalidate$")
+                .addModifiers(Modifier.PRIVATE, Modifier.SYNCHRONIZED)
+                .addParameter(String.class, "key");
+
+        var empty = true;
+        for (PreferenceSpec preference : preferences) {
+            if (preference.getCache() == null) continue;
+
+            builder.addStatement("if (key == null || key.equals($L)) $N = $N", preference.getStorageKeyExpression(), preference.getCache(), PreferenceSpec.NO_VALUE);
+            empty = false;
+        }
+
+        return empty ? null : builder.build();
+    }
+
+    /**
+     * Creates a method that writes the pending values of all preferences and then the dirty slots.
+     * @param slots the slots of the group or {@code null} if values are not stored in slots
+     * @return the method or {@code null} if the values of all preferences are written immediately
+     * @see eu.jonahbauer.android.preference.annotations.Preference#writePolicy()
+     */
+    private static MethodSpec flush(List<PreferenceSpec> preferences, PreferenceSlotsSpec slots) {
+        var builder = MethodSpec.methodBuilder("flushPending$")
+                .addModifiers(Modifier.PRIVATE);
+
+        var empty = true;
+        for (PreferenceSpec preference : preferences) {
+            if (preference.getWritePolicy() == null) continue;
+
+            builder.addStatement("$N()", preference.getWritePolicy().getFlush());
+            empty = false;
+        }
+
+        // pending values of preferences stored in slots are written to their slots
+        if (slots != null && !slots.isEmpty()) {
+            builder.addStatement("$N()", PreferenceSlotsSpec.FLUSH_METHOD_NAME);
+            empty = false;
+        }
+
+        return empty ? null : builder.build();
+    }
+
+    /**
+     * Creates a method that discards the pending values and the collected increments of all preferences and the dirty
+     * slots. Writes that have already been scheduled will find no pending value and do nothing.
+     * @param slots the slots of the group or {@code null} if values are not stored in slots
+     * @return the method or {@code null} if the values of all preferences are written immediately
+     */
+    private static MethodSpec discard(List<PreferenceSpec> preferences, PreferenceSlotsSpec slots) {
+        var builder = MethodSpec.methodBuilder("discardPending$")
+                .addModifiers(Modifier.PRIVATE);
+
+        var code = CodeBlock.builder();
+        for (PreferenceSpec preference : preferences) {
+            var writePolicy = preference.getWritePolicy();
+            if (writePolicy == null) continue;
+
+            code.addStatement("$N = $N", writePolicy.getPending(), PreferenceSpec.NO_VALUE);
+            if (writePolicy.getCounter() != null) code.addStatement("$N.reset()", writePolicy.getCounter());
+        }
+
+        if (slots != null && !slots.isEmpty()) {
+            // the flush lock is acquired before the groups lock
+            builder.addCode(slots.discard(code.build()));
+        } else if (!code.isEmpty()) {
+            builder.addModifiers(Modifier.SYNCHRONIZED).addCode(code.build());
+        } else {
+            return null;
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Creates a method that resolves the preference key on first use. Since strings are immutable the key can be
+     * cached without synchronization.
+     */
+    static MethodSpec lazyKey(Context context, FieldSpec field, FieldSpec resources, String key) {
+        return MethodSpec.methodBuilder(field.name)
+                .addModifiers(Modifier.PRIVATE)
+                .returns(String.class)
+                .addStatement("var key = $N", field)
+                .addStatement("if (key == null) $N = key = $N.getString($T.string.$N)", field, resources, context.getR(), key)
+                .addStatement("return key")
+                .build();
+    }
+
+    /**
+     * Creates the field holding the group instance. When groups are instantiated lazily, the field is only used to
+     * access the instance (if it exists) without causing it to be instantiated.
+     */
+    private static FieldSpec field(Context context, int index, ClassName name) {
+        if (context.isLazyGroups()) {
+            return FieldSpec.builder(name, "group$" + index, Modifier.PRIVATE, Modifier.STATIC, Modifier.VOLATILE).build();
+        } else {
+            return FieldSpec.builder(name, "group$" + index, Modifier.PRIVATE, Modifier.STATIC).build();
+        }
+    }
+
+    /**
+     * Creates a holder class that instantiates the group on first access (initialization-on-demand holder idiom).
+     * Accessing the group before the preferences have been initialized fails permanently.
+     */
+    private static TypeSpec holder(Context context, ClassName name, FieldSpec field) {
+        var instance = FieldSpec.builder(name, "INSTANCE", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL).build();
+        return TypeSpec.classBuilder("Holder")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addField(instance)
+                .addStaticBlock(CodeBlock.builder()
+                        .beginControlFlow("if ($N == null)", context.getSharedPreferences())
+                        .addStatement("throw new $T($S)", ClassNames.ILLEGAL_STATE_EXCEPTION, "Preferences have not yet been initialized.")
+                        .endControlFlow()
+                        .addStatement("$N = $N = new $T($N)", instance, field, name, context.getResources())
+                        .build()
+                )
+                .build();
     }
 
     private static MethodSpec accessor(Context context, String name, FieldSpec field, FieldSpec sharedPreferences) {
@@ -86,4 +323,14 @@ public class PreferenceGroupSpec {
                 .addStatement("return $N", field)
                 .build();
     }
+
+    private static MethodSpec lazyAccessor(Context context, String name, ClassName holder) {
+        return MethodSpec.methodBuilder(StringUtils.getGetterName(name, false, context.isFluent()))
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(holder.enclosingClassName())
+                .addJavadoc("@throws $T if this preference class has not yet been initialized. The group will be\n", ExceptionInInitializerError.class)
+                .addJavadoc("unavailable from then on and every subsequent call will throw a {@link $T}.\n", NoClassDefFoundError.class)
+                .addStatement("return $T.INSTANCE", holder)
+                .build();
+    }
 }
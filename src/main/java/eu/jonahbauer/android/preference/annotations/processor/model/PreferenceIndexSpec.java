@@ -0,0 +1,103 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeSpec;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.TypeKind;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A method mapping a preference key to the index of the preference within its group, so that changes reported by the
+ * {@code OnSharedPreferenceChangeListener} of the preference class can be dispatched with a {@code switch} instead of
+ * comparing the key against every preference key.
+ * <p>
+ * Preferences sharing the same storage key (i.e. packed booleans) are mapped to the index of the first of them.
+ */
+@Value
+public class PreferenceIndexSpec {
+    FieldSpec field;
+    MethodSpec method;
+
+    public static PreferenceIndexSpec create(Context context, List<PreferenceSpec> preferences) {
+        if (context.getStrings() != null) {
+            return new PreferenceIndexSpec(null, inlinedIndex(preferences));
+        } else {
+            var field = FieldSpec.builder(ParameterizedTypeName.get(Map.class, String.class, Integer.class), "indices$", Modifier.PRIVATE, Modifier.VOLATILE).build();
+            return new PreferenceIndexSpec(field, index(preferences, field));
+        }
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        if (field != null) builder.addField(field);
+        builder.addMethod(method);
+    }
+
+    /**
+     * Groups the given preferences by the key under which they are stored, skipping {@code void} preferences.
+     * @return a map from the index returned for the storage key to the preferences stored under that key
+     */
+    public static Map<Integer, List<PreferenceSpec>> byStorageKey(List<PreferenceSpec> preferences) {
+        var packed = new HashMap<Integer, List<PreferenceSpec>>();
+        var out = new LinkedHashMap<Integer, List<PreferenceSpec>>();
+        for (PreferenceSpec preference : preferences) {
+            if (preference.getSerializedType().getKind() == TypeKind.VOID) continue;
+
+            var bit = preference.getBit();
+            if (bit == null) {
+                out.put(preference.getIndex(), List.of(preference));
+            } else {
+                packed.computeIfAbsent(bit.getIndex(), i -> out.computeIfAbsent(preference.getIndex(), j -> new ArrayList<>()))
+                        .add(preference);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Creates a method mapping a preference key to the index of the preference using a string switch over the
+     * inlined keys.
+     */
+    private static MethodSpec inlinedIndex(List<PreferenceSpec> preferences) {
+        var builder = MethodSpec.methodBuilder("index$")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(String.class, "key")
+                .returns(int.class)
+                .beginControlFlow("switch (key)");
+        byStorageKey(preferences).forEach((index, group) -> {
+            var bit = group.get(0).getBit();
+            builder.addStatement("case $N: return $L", bit != null ? bit.getKey() : group.get(0).getKey(), index);
+        });
+        return builder.addStatement("default: return -1")
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Creates a method mapping a preference key to the index of the preference using a hash map that is built on
+     * first use.
+     */
+    private static MethodSpec index(List<PreferenceSpec> preferences, FieldSpec indices) {
+        var builder = MethodSpec.methodBuilder("index$")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(String.class, "key")
+                .returns(int.class)
+                .addStatement("var indices = $N", indices)
+                .beginControlFlow("if (indices == null)")
+                .addStatement("indices = new $T<>()", HashMap.class);
+        byStorageKey(preferences).forEach((index, group) -> {
+            builder.addStatement("indices.put($L, $L)", group.get(0).getStorageKeyExpression(), index);
+        });
+        return builder.addStatement("$N = indices", indices)
+                .endControlFlow()
+                .addStatement("return indices.getOrDefault(key, -1)")
+                .build();
+    }
+}
@@ -4,6 +4,7 @@ import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.TypeSpec;
+import eu.jonahbauer.android.preference.annotations.processor.StringUtils;
 import eu.jonahbauer.android.preference.annotations.processor.TypeUtils;
 import lombok.Value;
 
@@ -24,7 +25,7 @@ public class PreferenceKeysSpec {
                 .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
 
         for (PreferenceSpec preference : preferences) {
-            type.addMethod(TypeUtils.getter(preference.getName(), preference.getKey(), context.isFluent()));
+            type.addMethod(getter(context, preference));
         }
 
         var field = FieldSpec.builder(name, "keys", Modifier.PRIVATE, Modifier.FINAL)
@@ -39,4 +40,16 @@ public class PreferenceKeysSpec {
     public void apply(TypeSpec.Builder builder) {
         builder.addField(field).addMethod(accessor).addType(type);
     }
+
+    /**
+     * Creates a method returning the key under which the value of the preference is actually stored, i.e. the key of
+     * the backing preference for packed boolean preferences.
+     */
+    private static MethodSpec getter(Context context, PreferenceSpec preference) {
+        return MethodSpec.methodBuilder(StringUtils.getGetterName(preference.getName(), false, context.isFluent()))
+                .addModifiers(Modifier.PUBLIC)
+                .returns(String.class)
+                .addStatement("return $L", preference.getStorageKeyExpression())
+                .build();
+    }
 }
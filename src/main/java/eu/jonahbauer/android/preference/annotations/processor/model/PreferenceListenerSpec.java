@@ -0,0 +1,188 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.*;
+import eu.jonahbauer.android.preference.annotations.processor.ClassNames;
+import eu.jonahbauer.android.preference.annotations.processor.StringUtils;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.TypeKind;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * A typed listener interface for a preference group together with the methods dispatching the changes reported by
+ * the {@code OnSharedPreferenceChangeListener} of the preference class to the registered listeners.
+ * @see eu.jonahbauer.android.preference.annotations.Preferences#listeners()
+ */
+@Value
+public class PreferenceListenerSpec {
+    private static final String LISTENER_CLASS_NAME = "Listener";
+    static final String DISPATCH_METHOD_NAME = "dispatch$";
+
+    /**
+     * The fields holding the listeners subscribed to each preference.
+     */
+    List<FieldSpec> fields;
+    MethodSpec register;
+    List<MethodSpec> registerPreference;
+    MethodSpec unregister;
+    MethodSpec snapshot;
+    MethodSpec dispatch;
+    MethodSpec dispatchIndex;
+    TypeSpec type;
+
+    public static PreferenceListenerSpec create(ClassName parent, List<PreferenceSpec> preferences, PreferenceIndexSpec index) {
+        var name = parent.nestedClass(LISTENER_CLASS_NAME);
+
+        preferences = preferences.stream()
+                .filter(preference -> preference.getSerializedType().getKind() != TypeKind.VOID)
+                .collect(Collectors.toList());
+
+        var type = TypeSpec.interfaceBuilder(name)
+                .addModifiers(Modifier.PUBLIC)
+                .addJavadoc("A listener that is notified when a preference of this group changes. All callbacks are called\n")
+                .addJavadoc("with the new (deserialized) value and do nothing by default.\n");
+        for (PreferenceSpec preference : preferences) {
+            type.addMethod(MethodSpec.methodBuilder(callback(preference))
+                    .addModifiers(Modifier.PUBLIC, Modifier.DEFAULT)
+                    .addParameter(TypeName.get(preference.getDeserializedType()), "value")
+                    .addJavadoc("Called after the value of {@link $T#$N()} has changed.\n", parent, preference.getGetter())
+                    .build()
+            );
+        }
+
+        // listeners are weakly referenced just like OnSharedPreferenceChangeListeners
+        var fields = new LinkedHashMap<PreferenceSpec, FieldSpec>();
+        for (PreferenceSpec preference : preferences) {
+            fields.put(preference, FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(Set.class), name), "subscribers$" + preference.getIndex(), Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("$T.newSetFromMap(new $T<>())", Collections.class, WeakHashMap.class)
+                    .build()
+            );
+        }
+
+        var registerBuilder = MethodSpec.methodBuilder("registerListener")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(name, "listener")
+                .addJavadoc("Registers a listener that is notified when a preference of this group changes.\n")
+                .addJavadoc("The listener is only weakly referenced, so the caller has to keep a strong reference to it.\n")
+                .addJavadoc("@see $T#registerOnSharedPreferenceChangeListener\n", ClassNames.SHARED_PREFERENCES)
+                .addStatement("$T.requireNonNull(listener, $S)", ClassNames.OBJECTS, "Listener must not be null.");
+        fields.values().forEach(field -> registerBuilder.addCode(synchronizedStatement(field, "$N.add(listener)")));
+        var register = registerBuilder.build();
+
+        var registerPreference = new ArrayList<MethodSpec>();
+        fields.forEach((preference, field) -> registerPreference.add(
+                MethodSpec.methodBuilder("register" + StringUtils.capitalize(preference.getName()) + "Listener")
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(name, "listener")
+                        .addJavadoc("Registers a listener that is only notified when {@link #$N()} changes. Other preferences\n", preference.getGetter())
+                        .addJavadoc("of this group are not read on behalf of this listener.\n")
+                        .addJavadoc("@see #$N($T)\n", register, name)
+                        .addStatement("$T.requireNonNull(listener, $S)", ClassNames.OBJECTS, "Listener must not be null.")
+                        .addCode(synchronizedStatement(field, "$N.add(listener)"))
+                        .build()
+        ));
+
+        var unregister = MethodSpec.methodBuilder("unregisterListener")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(name, "listener")
+                .addJavadoc("Unregisters a previously registered listener from all preferences it has been registered for.\n")
+                .addJavadoc("@see $T#unregisterOnSharedPreferenceChangeListener\n", ClassNames.SHARED_PREFERENCES);
+        fields.values().forEach(field -> unregister.addCode(synchronizedStatement(field, "$N.remove(listener)")));
+
+        var array = ArrayTypeName.of(name);
+        var snapshot = MethodSpec.methodBuilder("subscribers$")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Set.class), name), "subscribers")
+                .returns(array)
+                .beginControlFlow("synchronized (subscribers)")
+                .addStatement("return subscribers.isEmpty() ? null : subscribers.toArray(new $T[0])", name)
+                .endControlFlow()
+                .build();
+
+        var groups = PreferenceIndexSpec.byStorageKey(preferences);
+        var dispatchIndex = dispatchIndex(groups, fields, snapshot);
+        var dispatch = dispatch(groups, index.getMethod(), dispatchIndex);
+
+        return new PreferenceListenerSpec(List.copyOf(fields.values()), register, registerPreference, unregister.build(), snapshot, dispatch, dispatchIndex, type.build());
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        fields.forEach(builder::addField);
+        builder.addMethod(register);
+        registerPreference.forEach(builder::addMethod);
+        builder.addMethod(unregister);
+        builder.addMethod(snapshot);
+        builder.addMethod(dispatch);
+        builder.addMethod(dispatchIndex);
+        builder.addType(type);
+    }
+
+    /**
+     * Returns a statement that is executed while holding the lock of the given field.
+     * @param format the statement with a single {@code $N} placeholder for the field
+     */
+    private static CodeBlock synchronizedStatement(FieldSpec field, String format) {
+        return CodeBlock.builder()
+                .beginControlFlow("synchronized ($N)", field)
+                .addStatement(format, field)
+                .endControlFlow()
+                .build();
+    }
+
+    private static String callback(PreferenceSpec preference) {
+        return "on" + StringUtils.capitalize(preference.getName()) + "Changed";
+    }
+
+    /**
+     * Creates a method that is called by the {@code OnSharedPreferenceChangeListener} of the preference class.
+     */
+    private static MethodSpec dispatch(Map<Integer, List<PreferenceSpec>> groups, MethodSpec index, MethodSpec dispatchIndex) {
+        var builder = MethodSpec.methodBuilder(DISPATCH_METHOD_NAME)
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(String.class, "key")
+                .beginControlFlow("if (key == null)");
+        groups.forEach((i, group) -> {
+            // memory-only preferences are not affected by changes of the SharedPreferences
+            if (group.get(0).getMemory() == null) builder.addStatement("$N($L)", dispatchIndex, i);
+        });
+        return builder.nextControlFlow("else")
+                .addStatement("$N($N(key))", dispatchIndex, index)
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Creates a method dispatching the change of the preferences stored under the key with the given index. All
+     * packed boolean preferences sharing a backing preference are dispatched, since it cannot be told which bits have
+     * changed. A value is only read when there is a listener subscribed to the preference.
+     */
+    private static MethodSpec dispatchIndex(Map<Integer, List<PreferenceSpec>> groups, Map<PreferenceSpec, FieldSpec> fields, MethodSpec snapshot) {
+        var builder = MethodSpec.methodBuilder(DISPATCH_METHOD_NAME)
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(int.class, "index")
+                .beginControlFlow("switch (index)");
+        groups.forEach((index, group) -> {
+            builder.beginControlFlow("case $L:", index);
+            for (PreferenceSpec preference : group) {
+                var suffix = group.size() == 1 ? "" : "$" + preference.getIndex();
+                var listeners = "listeners" + suffix;
+                var value = "value" + suffix;
+                builder.addStatement("var $N = $N($N)", listeners, snapshot, fields.get(preference))
+                        .beginControlFlow("if ($N != null)", listeners)
+                        .addStatement("var $N = $N()", value, preference.getGetter())
+                        .addStatement("for (var listener : $N) listener.$N($N)", listeners, callback(preference), value)
+                        .endControlFlow();
+            }
+            builder.addStatement("break").endControlFlow();
+        });
+        return builder.endControlFlow().build();
+    }
+}
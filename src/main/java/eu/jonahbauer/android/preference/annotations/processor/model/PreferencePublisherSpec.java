@@ -0,0 +1,87 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.*;
+import eu.jonahbauer.android.preference.annotations.processor.ClassNames;
+import eu.jonahbauer.android.preference.annotations.processor.StringUtils;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.TypeKind;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@code Flow.Publisher} for every preference of a group together with a method publishing the changes reported by
+ * the {@code OnSharedPreferenceChangeListener} of the preference class.
+ * @see eu.jonahbauer.android.preference.annotations.Preferences#publishers()
+ */
+@Value
+public class PreferencePublisherSpec {
+    static final String PUBLISH_METHOD_NAME = "publish$";
+
+    List<FieldSpec> fields;
+    List<MethodSpec> accessors;
+    MethodSpec publish;
+
+    public static PreferencePublisherSpec create(Context context, List<PreferenceSpec> preferences, PreferenceIndexSpec index) {
+        var fields = new ArrayList<FieldSpec>();
+        var accessors = new ArrayList<MethodSpec>();
+
+        var publish = MethodSpec.methodBuilder(PUBLISH_METHOD_NAME)
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(String.class, "key");
+        var publishAll = CodeBlock.builder();
+        var publishIndex = CodeBlock.builder();
+
+        var groups = PreferenceIndexSpec.byStorageKey(preferences);
+        for (List<PreferenceSpec> group : groups.values()) {
+            // packed boolean preferences sharing a backing preference are published together
+            publishIndex.beginControlFlow("case $L:", group.get(0).getIndex());
+            for (PreferenceSpec preference : group) {
+                publishIndex.addStatement("$N.publish()", publisher(preference));
+            }
+            publishIndex.addStatement("break").endControlFlow();
+        }
+
+        for (PreferenceSpec preference : preferences) {
+            if (preference.getSerializedType().getKind() == TypeKind.VOID) continue;
+
+            var type = TypeName.get(preference.getDeserializedType()).box();
+            var field = FieldSpec.builder(ParameterizedTypeName.get(ClassNames.PREFERENCE_PUBLISHER, type), publisher(preference), Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T<>(this::$N)", ClassNames.PREFERENCE_PUBLISHER, preference.getGetter())
+                    .build();
+            fields.add(field);
+
+            accessors.add(MethodSpec.methodBuilder(StringUtils.getGetterName(preference.getName() + "Publisher", false, context.isFluent()))
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(ParameterizedTypeName.get(ClassNames.FLOW_PUBLISHER, type))
+                    .addJavadoc("Returns a publisher emitting the current value of {@link #$N()} to every subscriber and\n", preference.getGetter())
+                    .addJavadoc("the new value whenever it changes. Consecutive equal values are only emitted once.\n")
+                    .addStatement("return $N", field)
+                    .build()
+            );
+
+            publishAll.addStatement("$N.publish()", field);
+        }
+
+        publish.beginControlFlow("if (key == null)")
+                .addCode(publishAll.build())
+                .addStatement("return")
+                .endControlFlow()
+                .beginControlFlow("switch ($N(key))", index.getMethod())
+                .addCode(publishIndex.build())
+                .endControlFlow();
+
+        return new PreferencePublisherSpec(fields, accessors, publish.build());
+    }
+
+    private static String publisher(PreferenceSpec preference) {
+        return "publisher$" + preference.getIndex();
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        fields.forEach(builder::addField);
+        accessors.forEach(builder::addMethod);
+        builder.addMethod(publish);
+    }
+}
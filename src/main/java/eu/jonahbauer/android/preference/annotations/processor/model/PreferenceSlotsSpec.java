@@ -0,0 +1,262 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.*;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.TypeMirror;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Assigns a slot in one of several arrays to every preference of a group. The arrays hold the serialized values of
+ * the preferences, so that the getters do not have to look up the values by their keys.
+ * <p>
+ * Setters only update the slot and mark it as dirty. The dirty slots of a group are written in a single batch on the
+ * {@linkplain DeferredWritesSpec deferred write executor} or when the pending values are flushed.
+ * @see eu.jonahbauer.android.preference.annotations.Preferences#slots()
+ */
+public final class PreferenceSlotsSpec {
+    static final String FLUSH_METHOD_NAME = "flushSlots$";
+
+    private final Context context;
+    private final FieldSpec sharedPreferences;
+    private final Map<Kind, Integer> sizes = new EnumMap<>(Kind.class);
+    private final FieldSpec dirty;
+    private final FieldSpec scheduled;
+    private final FieldSpec flushLock;
+    private int size;
+
+    public PreferenceSlotsSpec(Context context) {
+        this.context = context;
+        this.sharedPreferences = context.getSharedPreferences();
+        this.dirty = FieldSpec.builder(BitSet.class, "dirty$", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", BitSet.class)
+                .build();
+        this.scheduled = FieldSpec.builder(boolean.class, "slotsScheduled$", Modifier.PRIVATE).build();
+        this.flushLock = FieldSpec.builder(Object.class, "slotsFlushLock$", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", Object.class)
+                .build();
+    }
+
+    /**
+     * Assigns the next free slot of the appropriate array to a preference of the given serialized type.
+     */
+    public Slot allocate(TypeMirror serializedType) {
+        var kind = Kind.of(serializedType);
+        var index = sizes.merge(kind, 1, Integer::sum) - 1;
+        return new Slot(serializedType, index, kind.field, size++, dirty, scheduled);
+    }
+
+    /**
+     * @param preferences the preferences of the group
+     */
+    public void apply(TypeSpec.Builder builder, List<PreferenceSpec> preferences) {
+        if (size == 0) return;
+
+        sizes.forEach((kind, length) -> {
+            var type = kind.field.type;
+            var initializer = type instanceof ParameterizedTypeName
+                    ? CodeBlock.of("new $T<>($L)", ((ParameterizedTypeName) type).rawType, length)
+                    : CodeBlock.of("new $T($L)", type, length);
+            builder.addField(kind.field.toBuilder().initializer(initializer).build());
+        });
+
+        builder.addField(dirty).addField(scheduled);
+        if (context.getPendingEditor() == null) builder.addField(flushLock);
+        builder.addMethod(flush(preferences));
+    }
+
+    /**
+     * Returns whether no slots have been assigned.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns code discarding all dirty slots. Flushes that are in progress are completed first, so that they cannot
+     * write their values after the discard.
+     * @param discard code to be executed while holding the groups lock
+     */
+    public CodeBlock discard(CodeBlock discard) {
+        return CodeBlock.builder()
+                .beginControlFlow("synchronized ($L)", flushLock())
+                .beginControlFlow("synchronized (this)")
+                .add(discard)
+                .addStatement("$N.clear()", dirty)
+                .endControlFlow()
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Returns an expression evaluating to the lock serializing concurrent flushes. When writes are coalesced, the
+     * pending editor is guarded by the lock on the preferences class anyway.
+     */
+    private CodeBlock flushLock() {
+        return context.getPendingEditor() != null
+                ? CodeBlock.of("$T.class", context.getRoot())
+                : CodeBlock.of("$N", flushLock);
+    }
+
+    /**
+     * Creates a method writing the values of all dirty slots with a single editor, or staging them in the pending
+     * editor when writes are coalesced. The values are collected while holding the groups lock, but the groups lock
+     * must not be held while applying, since applying the changes notifies the change listener which in turn acquires
+     * the groups lock. Instead, concurrent flushes are serialized using the flush lock, so that a flush that has
+     * collected older values cannot apply them after a flush that has collected newer ones.
+     * <p>
+     * The backing values of packed booleans are read, modified and written while holding the lock of the packed
+     * booleans.
+     */
+    private MethodSpec flush(List<PreferenceSpec> preferences) {
+        var pendingEditor = context.getPendingEditor();
+        var code = CodeBlock.builder().beginControlFlow("synchronized ($L)", flushLock());
+
+        var packed = new LinkedHashMap<FieldSpec, List<PreferenceSpec>>();
+        for (PreferenceSpec preference : preferences) {
+            if (preference.getSlot() != null && preference.getBit() != null) {
+                packed.computeIfAbsent(preference.getBit().getKey(), key -> new ArrayList<>()).add(preference);
+            }
+        }
+        if (!packed.isEmpty()) {
+            code.beginControlFlow("synchronized ($N)", packed.values().iterator().next().get(0).getBit().getLock());
+        }
+
+        if (pendingEditor == null) code.addStatement("$T editor", context.getStoreEditorType());
+        code.beginControlFlow("synchronized (this)")
+                .addStatement("$N = false", scheduled)
+                .addStatement("if ($N.isEmpty()) return", dirty);
+        if (pendingEditor == null) {
+            code.addStatement("editor = $N.edit()", sharedPreferences);
+        } else {
+            code.addStatement("var editor = $L", pendingEditor.editor());
+        }
+
+        for (PreferenceSpec preference : preferences) {
+            var slot = preference.getSlot();
+            if (slot == null || preference.getBit() != null) continue;
+
+            code.beginControlFlow("if ($L)", slot.isDirty())
+                    .addStatement("var serializedValue = $L", slot.get())
+                    .addStatement(PreferenceSpec.PUT.get(slot.getType().toString()), "editor", preference.getKeyExpression())
+                    .endControlFlow();
+        }
+
+        for (List<PreferenceSpec> bits : packed.values()) {
+            var bit = bits.get(0).getBit();
+            var stored = "stored" + bit.getIndex();
+            var value = "packed" + bit.getIndex();
+            code.addStatement("var $N = $L", stored, bit.read(sharedPreferences))
+                    .addStatement("var $N = $N", value, stored);
+            for (PreferenceSpec preference : bits) {
+                var mask = preference.getBit().getMask();
+                code.addStatement("if ($L) $N = $L ? $N | $L : $N & ~$L", preference.getSlot().isDirty(), value, preference.getSlot().get(), value, mask, value, mask);
+            }
+            code.addStatement("if ($N != $N) editor.putLong($L, $N)", value, stored, bit.getKeyExpression(), value);
+        }
+
+        code.addStatement("$N.clear()", dirty)
+                .endControlFlow();
+        if (pendingEditor == null) code.addStatement("editor.apply()");
+        if (!packed.isEmpty()) code.endControlFlow();
+        code.endControlFlow();
+
+        return MethodSpec.methodBuilder(FLUSH_METHOD_NAME)
+                .addModifiers(Modifier.PRIVATE)
+                .addCode(code.build())
+                .build();
+    }
+
+    /**
+     * The arrays storing the serialized values. Values of type {@code boolean}, {@code byte}, {@code char},
+     * {@code short} and {@code float} are stored as {@code int}s and values of type {@code double} as {@code long}s.
+     */
+    private enum Kind {
+        INT(TypeName.get(AtomicIntegerArray.class), "ints$"),
+        LONG(TypeName.get(AtomicLongArray.class), "longs$"),
+        STRING(ParameterizedTypeName.get(AtomicReferenceArray.class, String.class), "strings$"),
+        STRING_SET(ParameterizedTypeName.get(ClassName.get(AtomicReferenceArray.class), ParameterizedTypeName.get(Set.class, String.class)), "stringSets$");
+
+        private final FieldSpec field;
+
+        Kind(TypeName type, String name) {
+            this.field = FieldSpec.builder(type, name, Modifier.PRIVATE, Modifier.FINAL).build();
+        }
+
+        private static Kind of(TypeMirror type) {
+            switch (type.getKind()) {
+                case BOOLEAN: case BYTE: case CHAR: case SHORT: case INT: case FLOAT: return INT;
+                case LONG: case DOUBLE: return LONG;
+                default: return String.class.getName().equals(type.toString()) ? STRING : STRING_SET;
+            }
+        }
+    }
+
+    /**
+     * A slot holding the serialized value of a single preference. The slot must only be modified while holding the
+     * groups lock.
+     */
+    @Value
+    public static class Slot {
+        TypeMirror type;
+        int index;
+        FieldSpec field;
+
+        /**
+         * The index of the bit in the {@linkplain #getDirty() dirty set} marking the slot as dirty.
+         */
+        int dirtyIndex;
+        FieldSpec dirty;
+
+        /**
+         * A field tracking whether a flush of the dirty slots has been scheduled.
+         */
+        FieldSpec scheduled;
+
+        /**
+         * Returns a condition that is {@code true} iff the value of this slot has not yet been written.
+         */
+        public CodeBlock isDirty() {
+            return CodeBlock.of("$N.get($L)", dirty, dirtyIndex);
+        }
+
+        /**
+         * Returns a statement marking this slot as dirty.
+         */
+        public CodeBlock markDirty() {
+            return CodeBlock.of("$N.set($L)", dirty, dirtyIndex);
+        }
+
+        /**
+         * Returns an expression evaluating to the value stored in this slot.
+         */
+        public CodeBlock get() {
+            var value = CodeBlock.of("$N.get($L)", field, index);
+            switch (type.getKind()) {
+                case BOOLEAN: return CodeBlock.of("($L != 0)", value);
+                case BYTE: return CodeBlock.of("(byte) $L", value);
+                case CHAR: return CodeBlock.of("(char) $L", value);
+                case SHORT: return CodeBlock.of("(short) $L", value);
+                case FLOAT: return CodeBlock.of("$T.intBitsToFloat($L)", Float.class, value);
+                case DOUBLE: return CodeBlock.of("$T.longBitsToDouble($L)", Double.class, value);
+                default: return value;
+            }
+        }
+
+        /**
+         * Returns a statement storing the given value in this slot.
+         */
+        public CodeBlock set(CodeBlock value) {
+            switch (type.getKind()) {
+                case BOOLEAN: value = CodeBlock.of("$L ? 1 : 0", value); break;
+                case FLOAT: value = CodeBlock.of("$T.floatToRawIntBits($L)", Float.class, value); break;
+                case DOUBLE: value = CodeBlock.of("$T.doubleToRawLongBits($L)", Double.class, value); break;
+            }
+            return CodeBlock.of("$N.set($L, $L)", field, index, value);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.*;
+import eu.jonahbauer.android.preference.annotations.processor.ClassNames;
+import eu.jonahbauer.android.preference.annotations.processor.StringUtils;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Value
+public class PreferenceSnapshotSpec {
+    private static final String SNAPSHOT_CLASS_NAME = "Snapshot";
+
+    /**
+     * Expressions converting the given raw value from {@code SharedPreferences.getAll()} via the given stored type to
+     * the serialized type, falling back to the given default value when the raw value is {@code null}.
+     */
+    private static final Map<String, String> DECODE = Map.of(
+            "boolean", "$1N == null ? $2L : ($3T) $1N",
+            "byte", "(byte) ($1N == null ? $2L : ($3T) $1N)",
+            "char", "(char) ($1N == null ? $2L : ($3T) $1N)",
+            "short", "(short) ($1N == null ? $2L : ($3T) $1N)",
+            "int", "$1N == null ? $2L : ($3T) $1N",
+            "long", "$1N == null ? $2L : ($3T) $1N",
+            "float", "$1N == null ? $2L : ($3T) $1N",
+            "double", "Double.longBitsToDouble($1N == null ? $2L : ($3T) $1N)",
+            "java.lang.String", "$1N == null ? $2S : ($3T) $1N",
+            "java.util.Set<java.lang.String>", "$1N == null ? $2L : ($3T) $1N"
+    );
+
+    private static final TypeName VALUES = ParameterizedTypeName.get(
+            ClassName.get(Map.class),
+            ClassName.get(String.class),
+            WildcardTypeName.subtypeOf(Object.class)
+    );
+
+    MethodSpec accessor;
+    TypeSpec type;
+
+    /**
+     * Creates a snapshot class for a preference group. The snapshot class is an inner class of the group, so that it
+     * can access the preference keys and serializers.
+     */
+    public static PreferenceSnapshotSpec create(Context context, ClassName parent, List<PreferenceSpec> preferences) {
+        var name = parent.nestedClass(SNAPSHOT_CLASS_NAME);
+
+        var constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(VALUES, "values");
+
+        var type = TypeSpec.classBuilder(name)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL);
+
+        var unchecked = false;
+        for (PreferenceSpec preference : preferences) {
+            var serializedType = preference.getSerializedType();
+            if (serializedType.getKind() == TypeKind.VOID) continue;
+
+            var field = FieldSpec.builder(TypeName.get(preference.getDeserializedType()), preference.getName(), Modifier.PRIVATE, Modifier.FINAL).build();
+            type.addField(field);
+            type.addMethod(MethodSpec.methodBuilder(preference.getGetter().name)
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(field.type)
+                    .addStatement("return $N", field)
+                    .build()
+            );
+
+            if (preference.getMemory() != null) {
+                constructor.addStatement("this.$N = $N", field, preference.getMemory());
+                continue;
+            }
+
+            var raw = "value$" + preference.getIndex();
+            var storedType = storedType(serializedType);
+            var bit = preference.getBit();
+            constructor.addStatement("var $N = values.get($L)", raw, preference.getStorageKeyExpression());
+            if (bit != null) {
+                var value = CodeBlock.of("(($1N == null ? $2N : ($3T) $1N) & $4L) != 0", raw, bit.getDefaults(), Long.class, bit.getMask());
+                constructor.addStatement("this.$N = $L", field, preference.deserialize(value));
+            } else if (preference.isDefaultOnMissing()) {
+                constructor.addStatement("this.$N = $L", field, preference.deserializeOrDefault(CodeBlock.of("($T) $N", storedType, raw)));
+            } else {
+                var value = CodeBlock.of(DECODE.get(serializedType.toString()), raw, preference.getDefaultValue(), storedType);
+                constructor.addStatement("this.$N = $L", field, preference.deserialize(value));
+            }
+
+            unchecked |= storedType instanceof ParameterizedTypeName;
+        }
+
+        if (unchecked) {
+            constructor.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build());
+        }
+        type.addMethod(constructor.build());
+
+        var accessor = MethodSpec.methodBuilder("snapshot")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(name)
+                .addJavadoc("Returns an immutable snapshot of all preferences in this group. The preferences are read\n")
+                .addJavadoc("consistently with a single call to {@link $T#getAll()}.\n", context.getStoreType());
+        accessor.addCode(PreferenceEditorSpec.flush(context, preferences));
+        accessor.addStatement("return new $T($N.getAll())", name, context.getSharedPreferences());
+
+        return new PreferenceSnapshotSpec(accessor.build(), type.build());
+    }
+
+    /**
+     * Creates a snapshot class for the preferences class containing a snapshot of every group. The values of every
+     * {@linkplain eu.jonahbauer.android.preference.annotations.PreferenceGroup#file() file} are read with a single
+     * call.
+     */
+    public static PreferenceSnapshotSpec create(Context context, List<PreferenceGroupSpec> groups) {
+        var root = context.getRoot();
+        var name = root.nestedClass(SNAPSHOT_CLASS_NAME);
+
+        var constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PRIVATE);
+
+        // one parameter per file
+        var files = groups.stream().map(PreferenceGroupSpec::getSharedPreferences).distinct().collect(Collectors.toList());
+        if (files.isEmpty()) files = List.of(context.getSharedPreferences());
+        var parameters = new LinkedHashMap<FieldSpec, String>();
+        for (FieldSpec file : files) {
+            var parameter = parameters.isEmpty() ? "values" : "values$" + parameters.size();
+            constructor.addParameter(VALUES, parameter);
+            parameters.put(file, parameter);
+        }
+
+        var type = TypeSpec.classBuilder(name)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+
+        for (PreferenceGroupSpec group : groups) {
+            var groupName = group.getName().simpleName();
+            var field = FieldSpec.builder(group.getName().nestedClass(SNAPSHOT_CLASS_NAME), groupName, Modifier.PRIVATE, Modifier.FINAL).build();
+            type.addField(field);
+            type.addMethod(MethodSpec.methodBuilder(StringUtils.getGetterName(groupName, false, context.isFluent()))
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(field.type)
+                    .addStatement("return $N", field)
+                    .build()
+            );
+
+            // qualified instance creation, since the snapshot class is an inner class of the group
+            constructor.addStatement("this.$N = $T.$N().new $L($N)", field, root, group.getAccessor(), SNAPSHOT_CLASS_NAME, parameters.get(group.getSharedPreferences()));
+        }
+
+        type.addMethod(constructor.build());
+
+        var accessor = MethodSpec.methodBuilder("snapshot")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(name)
+                .addJavadoc("Returns an immutable snapshot of all preferences. The preferences are read consistently\n")
+                .addJavadoc("with a single call to {@link $T#getAll()} per preference file.\n", context.getStoreType())
+                .addJavadoc("@throws $T if this preference class has not yet been initialized.\n", ClassNames.ILLEGAL_STATE_EXCEPTION);
+        PreferencesSpec.addInitCheck(accessor, context.getSharedPreferences());
+        accessor.addCode(PreferenceEditorSpec.flush(context));
+        accessor.addStatement("return new $T($L)", name, parameters.keySet().stream().map(file -> CodeBlock.of("$N.getAll()", file)).collect(CodeBlock.joining(", ")));
+
+        return new PreferenceSnapshotSpec(accessor.build(), type.build());
+    }
+
+    /**
+     * Returns the type in which a value of the given serialized type is stored by {@code SharedPreferences}.
+     */
+    private static TypeName storedType(TypeMirror serializedType) {
+        switch (serializedType.getKind()) {
+            case BOOLEAN: return ClassName.get(Boolean.class);
+            case BYTE: case CHAR: case SHORT: case INT: return ClassName.get(Integer.class);
+            case LONG: case DOUBLE: return ClassName.get(Long.class);
+            case FLOAT: return ClassName.get(Float.class);
+            default: return TypeName.get(serializedType);
+        }
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        builder.addMethod(accessor);
+        builder.addType(type);
+    }
+}
@@ -2,8 +2,11 @@ package eu.jonahbauer.android.preference.annotations.processor.model;
 
 import com.squareup.javapoet.*;
 import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.processor.ClassNames;
 import eu.jonahbauer.android.preference.annotations.processor.StringUtils;
 import lombok.Value;
+import lombok.experimental.NonFinal;
+import lombok.experimental.PackagePrivate;
 
 import javax.lang.model.element.Modifier;
 import javax.lang.model.type.TypeKind;
@@ -13,44 +16,184 @@ import java.util.Set;
 
 @Value
 public class PreferenceSpec {
-    private static final Map<String, String> GETTER = Map.of(
-            "boolean", "var value = $N.getBoolean($N, $L)",
-            "byte", "var value = (byte) $N.getInt($N, $L)",
-            "char", "var value = (char) $N.getInt($N, $L)",
-            "short", "var value = (short) $N.getInt($N, $L)",
-            "int", "var value = $N.getInt($N, $L)",
-            "long", "var value = $N.getLong($N, $L)",
-            "float", "var value = $N.getFloat($N, $L)",
-            "double", "var value = Double.longBitsToDouble($N.getLong($N, $L))",
-            "java.lang.String", "var value = $N.getString($N, $S)",
-            "java.util.Set<java.lang.String>", "var value = $N.getStringSet($N, $L)"
+    /**
+     * Expressions reading the value stored under the given key expression with the given default value.
+     */
+    private static final Map<String, String> GET = Map.of(
+            "boolean", "$N.getBoolean($L, $L)",
+            "byte", "(byte) $N.getInt($L, $L)",
+            "char", "(char) $N.getInt($L, $L)",
+            "short", "(short) $N.getInt($L, $L)",
+            "int", "$N.getInt($L, $L)",
+            "long", "$N.getLong($L, $L)",
+            "float", "$N.getFloat($L, $L)",
+            "double", "Double.longBitsToDouble($N.getLong($L, $L))",
+            "java.lang.String", "$N.getString($L, $S)",
+            "java.util.Set<java.lang.String>", "$N.getStringSet($L, $L)"
     );
 
-    private static final Map<String, String> SETTER = Map.of(
-            "boolean", "$N.edit().putBoolean($N, serializedValue).apply()",
-            "byte", "$N.edit().putInt($N, (int) serializedValue).apply()",
-            "char", "$N.edit().putInt($N, (int) serializedValue).apply()",
-            "short", "$N.edit().putInt($N, (int) serializedValue).apply()",
-            "int", "$N.edit().putInt($N, (int) serializedValue).apply()",
-            "long", "$N.edit().putLong($N, serializedValue).apply()",
-            "float", "$N.edit().putFloat($N, serializedValue).apply()",
-            "double", "$N.edit().putLong($N, Double.doubleToRawLongBits(serializedValue)).apply()",
-            "java.lang.String", "$N.edit().putString($N, serializedValue).apply()",
-            "java.util.Set<java.lang.String>", "$N.edit().putStringSet($N, serializedValue).apply()"
+    /**
+     * Statements storing the {@code serializedValue} under the given key expression in the given editor.
+     */
+    @PackagePrivate
+    static final Map<String, String> PUT = Map.of(
+            "boolean", "$L.putBoolean($L, serializedValue)",
+            "byte", "$L.putInt($L, (int) serializedValue)",
+            "char", "$L.putInt($L, (int) serializedValue)",
+            "short", "$L.putInt($L, (int) serializedValue)",
+            "int", "$L.putInt($L, (int) serializedValue)",
+            "long", "$L.putLong($L, serializedValue)",
+            "float", "$L.putFloat($L, serializedValue)",
+            "double", "$L.putLong($L, Double.doubleToRawLongBits(serializedValue))",
+            "java.lang.String", "$L.putString($L, serializedValue)",
+            "java.util.Set<java.lang.String>", "$L.putStringSet($L, serializedValue)"
     );
 
+    /**
+     * Expressions converting the given default value to the serialized type.
+     */
+    private static final Map<String, String> DEFAULT = Map.of(
+            "boolean", "$L",
+            "byte", "(byte) $L",
+            "char", "(char) $L",
+            "short", "(short) $L",
+            "int", "$L",
+            "long", "$L",
+            "float", "$L",
+            "double", "Double.longBitsToDouble($L)",
+            "java.lang.String", "$S",
+            "java.util.Set<java.lang.String>", "$L"
+    );
+
+    /**
+     * Marks a {@linkplain #getCache() cache field} as not holding a value.
+     */
+    @PackagePrivate
+    static final FieldSpec NO_VALUE = FieldSpec.builder(Object.class, "NO_VALUE", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+            .initializer("new $T()", Object.class)
+            .build();
+
+    int index;
     String name;
 
     FieldSpec key;
+    CodeBlock keyExpression;
+
+    /**
+     * An expression evaluating to the key under which the value is actually stored. This differs from the
+     * {@linkplain #getKeyExpression() key} for packed boolean preferences.
+     */
+    CodeBlock storageKeyExpression;
+
+    /**
+     * The bit storing the value of a packed boolean preference or {@code null}.
+     */
+    PackedBooleansSpec.Bit bit;
+
+    /**
+     * The slot holding the serialized value or {@code null} if the value is read from the {@code SharedPreferences}.
+     */
+    PreferenceSlotsSpec.Slot slot;
+
+    /**
+     * An expression reading the serialized value from the {@code SharedPreferences} into the {@linkplain #getSlot()
+     * slot} or {@code null} if there is no slot.
+     */
+    @NonFinal
+    CodeBlock load;
+
     FieldSpec serializer;
 
+    /**
+     * An expression evaluating to the serializer instance or {@code null} if there is no serializer.
+     * @see SerializerSpec#getSerializerExpression()
+     */
+    CodeBlock serializerExpression;
+    MethodSpec serializerAccessor;
+    String serializeMethod;
+    String deserializeMethod;
+    FieldSpec cache;
+
+    /**
+     * A field caching the deserialized default value and a method deserializing the default value on first use, or
+     * {@code null} if the default value is neither needed as a {@linkplain SerializerSpec#isFallback() fallback} nor
+     * for {@linkplain #isDefaultOnMissing() missing values}.
+     */
+    FieldSpec deserializedDefault;
+    MethodSpec defaultAccessor;
+
+    /**
+     * Whether missing values are read as {@code null} and replaced with the cached deserialized default value instead
+     * of deserializing the serialized default value on every read.
+     */
+    boolean defaultOnMissing;
+
+    /**
+     * A method deserializing a value that falls back to the default value or {@code null} if the serializer does not
+     * {@linkplain SerializerSpec#isFallback() deserialize unknown values to null}.
+     */
+    MethodSpec deserializer;
+
+    @NonFinal
     MethodSpec getter;
+    @NonFinal
     MethodSpec setter;
 
+    /**
+     * The pending value and the methods writing it or {@code null} if the value is written immediately.
+     * @see Preference#writePolicy()
+     */
+    @NonFinal
+    WritePolicySpec writePolicy;
+
+    /**
+     * A field holding the value of a memory-only preference or {@code null} if the value is stored in the
+     * {@code SharedPreferences}.
+     * @see Preference#memoryOnly()
+     */
+    @NonFinal
+    FieldSpec memory;
+
+    /**
+     * The methods of a counter or {@code null} if the preference is not a counter.
+     * @see Preference#counter()
+     */
+    @NonFinal
+    CounterSpec counter;
+
+    /**
+     * A lock serializing the setter and the update method of this preference or {@code null} if there is no update
+     * method.
+     * @see Preference#update()
+     */
+    FieldSpec lock;
+
+    /**
+     * The update method or {@code null} if there is no update method.
+     * @see Preference#update()
+     */
+    @NonFinal
+    UpdateSpec update;
+
     TypeMirror serializedType;
     TypeMirror deserializedType;
+    Object defaultValue;
+
+    /**
+     * A condition that is {@code true} iff the {@code serializedValue} equals the stored value and there is no
+     * {@linkplain WritePolicySpec#getPending() pending value}, or {@code null} if unchanged writes should not be
+     * skipped.
+     */
+    @NonFinal
+    CodeBlock unchanged;
 
-    public static PreferenceSpec create(Context context, int index, Preference preference) {
+    /**
+     * @param resource the name of the string resource containing the preference key
+     * @param packed the packed booleans of the group or {@code null} if booleans should not be packed
+     * @param slots the slots of the group or {@code null} if values should not be stored in slots
+     * @param memoryOnly whether the value should only be kept in memory
+     */
+    public static PreferenceSpec create(Context context, int index, Preference preference, String resource, PackedBooleansSpec packed, PreferenceSlotsSpec slots, boolean memoryOnly) {
         if (!check(context, preference)) return null;
 
         var serializerSpec = SerializerSpec.create(context, index, preference);
@@ -60,41 +203,229 @@ public class PreferenceSpec {
             return null;
         }
 
-        var key = FieldSpec.builder(String.class, "key$" + index, Modifier.PRIVATE, Modifier.FINAL).build();
-        return new PreferenceSpec(context, preference, key, serializerSpec);
+        var key = key(context, "key$" + index, resource);
+        if (key == null) return null;
+
+        memoryOnly |= preference.memoryOnly();
+        if (preference.counter() && !checkCounter(context, preference, serializerSpec, memoryOnly)) return null;
+
+        FieldSpec cache = null;
+        if ((context.isCache() || preference.cache()) && !memoryOnly && !preference.counter() && serializerSpec.getSerializedType().getKind() != TypeKind.VOID) {
+            cache = FieldSpec.builder(Object.class, "cache$" + index, Modifier.PRIVATE, Modifier.VOLATILE)
+                    .initializer("$N", NO_VALUE)
+                    .build();
+        }
+
+        PackedBooleansSpec.Bit bit = null;
+        if (packed != null && !memoryOnly && serializerSpec.getSerializedType().getKind() == TypeKind.BOOLEAN) {
+            var defaultValue = getDefaultValue(preference, serializerSpec.getSerializedType());
+            if (!"true".equals(String.valueOf(defaultValue)) && !"false".equals(String.valueOf(defaultValue))) {
+                context.error("Illegal default value for packed boolean preference %s: %s", preference.name(), defaultValue);
+                return null;
+            }
+            bit = packed.allocate(Boolean.parseBoolean(String.valueOf(defaultValue)));
+            if (bit == null) return null;
+        }
+
+        PreferenceSlotsSpec.Slot slot = null;
+        if (slots != null && !memoryOnly && serializerSpec.getSerializedType().getKind() != TypeKind.VOID) {
+            slot = slots.allocate(serializerSpec.getSerializedType());
+        }
+
+        FieldSpec lock = null;
+        if ((context.isUpdate() || preference.update()) && !preference.counter() && serializerSpec.getSerializedType().getKind() != TypeKind.VOID) {
+            lock = FieldSpec.builder(Object.class, "lock$" + index, Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T()", Object.class)
+                    .build();
+        }
+
+        return new PreferenceSpec(context, index, preference, key, cache, serializerSpec, bit, slot, lock, memoryOnly);
     }
 
-    public PreferenceSpec(Context context, Preference preference, FieldSpec key, SerializerSpec serializerSpec) {
+    public PreferenceSpec(Context context, int index, Preference preference, FieldSpec key, FieldSpec cache, SerializerSpec serializerSpec, PackedBooleansSpec.Bit bit, PreferenceSlotsSpec.Slot slot, FieldSpec lock, boolean memoryOnly) {
+        this.index = index;
         this.name = StringUtils.getMethodName(preference.name());
         this.key = key;
+        this.keyExpression = context.isLazyKeys() ? CodeBlock.of("$N()", key) : CodeBlock.of("$N", key);
+        this.bit = bit;
+        this.storageKeyExpression = bit != null ? bit.getKeyExpression() : keyExpression;
+        this.slot = slot;
+        this.cache = cache;
+        this.lock = lock;
         this.serializer = serializerSpec.getSerializer();
+        this.serializerExpression = serializerSpec.getSerializerExpression();
+        this.serializerAccessor = serializerSpec.getSerializerAccessor();
+        this.serializeMethod = serializerSpec.getSerializeMethod();
+        this.deserializeMethod = serializerSpec.getDeserializeMethod();
         this.serializedType = serializerSpec.getSerializedType();
         this.deserializedType = serializerSpec.getDeserializedType();
 
         var sharedPreferences = context.getSharedPreferences();
+        var pendingEditor = context.getPendingEditor();
         var fluent = context.isFluent();
-        var defaultValue = getDefaultValue(preference, serializedType);
+        this.defaultValue = getDefaultValue(preference, serializedType);
         var description = preference.description();
 
-        if (serializedType.getKind() == TypeKind.VOID) {
-            getter = null;
-            setter = null;
+        // SharedPreferences cannot store null strings, so a null string always indicates a missing value
+        this.defaultOnMissing = serializerExpression != null && isString(serializedType) && defaultValue != null;
+        if (serializerSpec.isFallback() || defaultOnMissing) {
+            // the default value is deserialized on first use, so that the serializer is not instantiated eagerly
+            this.deserializedDefault = FieldSpec.builder(Object.class, "default$" + index, Modifier.PRIVATE, Modifier.VOLATILE)
+                    .initializer("$N", NO_VALUE)
+                    .build();
+            this.defaultAccessor = defaultAccessor(deserializedDefault, CodeBlock.of(
+                    isString(serializedType) ? "$L.$N($S)" : "$L.$N($L)", serializerExpression, deserializeMethod, defaultValue
+            ));
         } else {
+            this.deserializedDefault = null;
+            this.defaultAccessor = null;
+        }
+
+        if (serializerSpec.isFallback()) {
+            this.deserializer = MethodSpec.methodBuilder("deserialize$" + index)
+                    .addModifiers(Modifier.PRIVATE)
+                    .addParameter(TypeName.get(serializedType), "value")
+                    .returns(TypeName.get(deserializedType))
+                    .addStatement("var result = $L.$N(value)", serializerExpression, serializerSpec.getFallbackMethod())
+                    .addStatement("return result != null ? result : $N()", defaultAccessor)
+                    .build();
+        } else {
+            this.deserializer = null;
+        }
+
+        // the fields of inactive modes are left null
+        if (serializedType.getKind() == TypeKind.VOID) {
+            // void preferences only consist of their key
+        } else if (memoryOnly) {
+            this.memory = FieldSpec.builder(TypeName.get(deserializedType), "memory$" + index, Modifier.PRIVATE, Modifier.VOLATILE)
+                    .initializer("$L", deserialize(CodeBlock.of(DEFAULT.get(serializedType.toString()), defaultValue)))
+                    .build();
+
             var getter = MethodSpec.methodBuilder(StringUtils.getGetterName(name, serializedType, fluent))
                     .addModifiers(Modifier.PUBLIC)
                     .returns(TypeName.get(deserializedType))
-                    .addStatement(GETTER.get(serializedType.toString()), sharedPreferences, key, defaultValue)
-                    .addStatement(serializer == null ? "return value" : "return $N.deserialize(value)", serializer);
+                    .addStatement("return $N", memory);
+            addJavadoc(getter, description, serializedType, defaultValue);
+            this.getter = getter.build();
+
+            // there is no OnSharedPreferenceChangeListener reporting the change
+            var notify = CodeBlock.builder();
+            if (context.isListeners()) notify.addStatement("$N($L)", PreferenceListenerSpec.DISPATCH_METHOD_NAME, keyExpression);
+            if (context.isPublishers()) notify.addStatement("$N($L)", PreferencePublisherSpec.PUBLISH_METHOD_NAME, keyExpression);
+
+            var setter = MethodSpec.methodBuilder(StringUtils.getSetterName(name, fluent))
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(TypeName.get(deserializedType), "value")
+                    .addCode(locked(CodeBlock.of("$N = value;\n", memory)))
+                    .addCode(notify.build());
+            addJavadoc(setter, description, serializedType, defaultValue);
+            this.setter = setter.build();
+
+            if (lock != null) this.update = UpdateSpec.createMemoryOnly(this, notify.build(), description);
+        } else {
+            var value = bit != null
+                    ? bit.get(sharedPreferences)
+                    : CodeBlock.of(GET.get(serializedType.toString()), sharedPreferences, keyExpression, defaultValue);
+            var read = defaultOnMissing
+                    ? CodeBlock.of(GET.get(serializedType.toString()), sharedPreferences, keyExpression, null)
+                    : value;
+
+            // the slot holds the value as read from the SharedPreferences, so that it can replace every read
+            if (slot != null) {
+                this.load = read;
+                value = read = slot.get();
+            }
+
+            // slots are up-to-date even while changes are staged in the pending editor
+            var stagedEditor = slot == null ? pendingEditor : null;
+            var stored = read;
+
+            var unchanged = context.isSkipUnchangedWrites() || preference.skipUnchangedWrites()
+                    ? isUnchanged(serializedType, value)
+                    : null;
+
+            // writes the serializedValue to the SharedPreferences
+            var write = CodeBlock.builder();
+            if (slot != null) {
+                // the slot is written together with all other dirty slots of the group
+                write.addStatement("boolean schedule")
+                        .beginControlFlow("synchronized (this)");
+                if (unchanged != null) write.addStatement("if ($L) return", unchanged);
+                write.addStatement("$L", slot.set(CodeBlock.of("serializedValue")))
+                        .addStatement("$L", slot.markDirty());
+                if (cache != null) write.addStatement("$N = $N", cache, NO_VALUE);
+                write.addStatement("schedule = !$N", slot.getScheduled())
+                        .addStatement("$N = true", slot.getScheduled())
+                        .endControlFlow()
+                        .add("if (schedule) ")
+                        .add(context.getDeferredWrites().schedule(CodeBlock.of("this::$N", PreferenceSlotsSpec.FLUSH_METHOD_NAME), 0));
+            } else if (bit != null) {
+                // the other bits must not be modified concurrently
+                write.beginControlFlow("synchronized ($N)", bit.getLock());
+                if (unchanged != null) write.addStatement("if ($L) return", unchanged);
+                write.addStatement("var packed = $L", bit.read(sharedPreferences))
+                        .addStatement("$N.edit().putLong($L, serializedValue ? packed | $L : packed & ~$L).apply()", sharedPreferences, bit.getKeyExpression(), bit.getMask(), bit.getMask())
+                        .endControlFlow();
+            } else if (pendingEditor == null) {
+                if (unchanged != null) write.addStatement("if ($L) return", unchanged);
+                write.addStatement(PUT.get(serializedType.toString()) + ".apply()", CodeBlock.of("$N.edit()", sharedPreferences), keyExpression);
+            } else {
+                // the stored value is only up-to-date when there are no pending changes
+                write.beginControlFlow("synchronized ($T.class)", context.getRoot());
+                if (unchanged != null) write.addStatement("if ($L && $L) return", pendingEditor.isEmpty(), unchanged);
+                write.addStatement(PUT.get(serializedType.toString()), pendingEditor.editor(), keyExpression)
+                        .endControlFlow();
+            }
+            if (cache != null && slot == null) {
+                write.beginControlFlow("synchronized (this)")
+                        .addStatement("$N = $N", cache, NO_VALUE)
+                        .endControlFlow();
+            }
+
+            this.writePolicy = WritePolicySpec.create(context, index, preference, serializedType, cache, write.build(), stored, stagedEditor);
+
+            // the pending value takes precedence over the stored value
+            var readPending = CodeBlock.builder();
+            if (writePolicy != null) {
+                readPending.addStatement("var pending = $N", writePolicy.getPending());
+                read = CodeBlock.of("pending != $N ? ($T) pending : $L", NO_VALUE, TypeName.get(serializedType), read);
+            }
+
+            var getter = MethodSpec.methodBuilder(StringUtils.getGetterName(name, serializedType, fluent))
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(TypeName.get(deserializedType));
+            if (cache != null && TypeName.get(deserializedType) instanceof ParameterizedTypeName
+                    || writePolicy != null && TypeName.get(serializedType) instanceof ParameterizedTypeName) {
+                getter.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build());
+            }
+            if (preference.counter()) {
+                addCounterGetterCode(getter, readPending.build(), read, stagedEditor);
+            } else if (cache == null) {
+                if (stagedEditor != null) getter.addCode(stagedEditor.flushIfPending());
+                getter.addCode(readPending.build())
+                        .addStatement("var value = $L", read)
+                        .addStatement("return $L", deserializeOrDefault(CodeBlock.of("value")));
+            } else {
+                addCachedGetterCode(getter, readPending.build(), read, stagedEditor);
+            }
             addJavadoc(getter, description, serializedType, defaultValue);
             this.getter = getter.build();
 
+            this.unchanged = unchanged != null && writePolicy != null
+                    ? CodeBlock.of("$N == $N && $L", writePolicy.getPending(), NO_VALUE, unchanged)
+                    : unchanged;
+
             var setter = MethodSpec.methodBuilder(StringUtils.getSetterName(name, fluent))
                     .addModifiers(Modifier.PUBLIC)
                     .addParameter(TypeName.get(deserializedType), "value")
-                    .addStatement(serializer == null ? "var serializedValue = value" : "var serializedValue = $N.serialize(value)", serializer)
-                    .addStatement(SETTER.get(serializedType.toString()), sharedPreferences, key);
+                    .addStatement(serializerExpression == null ? "var serializedValue = value" : "var serializedValue = $L.$N(value)", serializerExpression, serializeMethod);
+            var set = writePolicy == null ? write.build() : writePolicy.getDeferredWrite();
+            setter.addCode(locked(set));
             addJavadoc(setter, description, serializedType, defaultValue);
             this.setter = setter.build();
+
+            if (lock != null) this.update = UpdateSpec.create(this, set, readPending.build(), read, stagedEditor, description);
+            if (preference.counter()) this.counter = CounterSpec.create(context, this, preference.debounceWindow(), description);
         }
     }
 
@@ -102,9 +433,162 @@ public class PreferenceSpec {
         if (getter != null) builder.addMethod(getter);
         if (setter != null) builder.addMethod(setter);
         if (serializer != null) builder.addField(serializer);
+        if (serializerAccessor != null) builder.addMethod(serializerAccessor);
+        if (deserializedDefault != null) builder.addField(deserializedDefault);
+        if (defaultAccessor != null) builder.addMethod(defaultAccessor);
+        if (deserializer != null) builder.addMethod(deserializer);
+        if (cache != null) builder.addField(cache);
+        if (writePolicy != null) writePolicy.apply(builder);
+        if (memory != null) builder.addField(memory);
+        if (counter != null) counter.apply(builder);
+        if (lock != null) builder.addField(lock);
+        if (update != null) update.apply(builder);
         builder.addField(key);
     }
 
+    /**
+     * Returns an expression converting the given value from the serialized type to the deserialized type.
+     */
+    public CodeBlock deserialize(CodeBlock value) {
+        if (serializerExpression == null) {
+            return value;
+        } else if (deserializer != null) {
+            return CodeBlock.of("$N($L)", deserializer, value);
+        } else {
+            return CodeBlock.of("$L.$N($L)", serializerExpression, deserializeMethod, value);
+        }
+    }
+
+    /**
+     * Adds the body of a getter that returns the cached value when present and otherwise reads and caches the value.
+     * The value is read and stored while holding the groups lock, so that it cannot overwrite a concurrent
+     * invalidation with a stale value. Pending writes are flushed before acquiring the lock, since flushing
+     * notifies the change listener which in turn acquires the groups lock.
+     * @param prepare code to be executed before reading the value while holding the groups lock
+     */
+    private void addCachedGetterCode(MethodSpec.Builder getter, CodeBlock prepare, CodeBlock value, PendingEditorSpec pendingEditor) {
+        var type = TypeName.get(deserializedType);
+
+        getter.addStatement("var cached = $N", cache)
+                .addStatement("if (cached != $N) return ($T) cached", NO_VALUE, type.box());
+        if (pendingEditor != null) getter.addCode(pendingEditor.flushIfPending());
+        getter.beginControlFlow("synchronized (this)")
+                .addCode(prepare)
+                .addStatement("var value = $L", value)
+                .addStatement("var result = $L", deserializeOrDefault(CodeBlock.of("value")))
+                .addStatement("$N = result", cache)
+                .addStatement("return result")
+                .endControlFlow();
+    }
+
+    /**
+     * Adds the body of a counter getter that adds the collected increments to the pending or stored value. The value
+     * is read while holding the groups lock, since {@linkplain WritePolicySpec#getFlush() flushing} moves the
+     * increments to the pending value while holding the groups lock.
+     */
+    private void addCounterGetterCode(MethodSpec.Builder getter, CodeBlock prepare, CodeBlock value, PendingEditorSpec pendingEditor) {
+        if (pendingEditor != null) getter.addCode(pendingEditor.flushIfPending());
+        getter.beginControlFlow("synchronized (this)")
+                .addCode(prepare)
+                .addStatement("var value = $L", value)
+                .addStatement(serializedType.getKind() == TypeKind.INT ? "return (int) (value + $N.sum())" : "return value + $N.sum()", writePolicy.getCounter())
+                .endControlFlow();
+    }
+
+    /**
+     * Wraps the given code in a block holding the {@linkplain #getLock() lock} of this preference if there is one.
+     */
+    private CodeBlock locked(CodeBlock code) {
+        if (lock == null) return code;
+        return CodeBlock.builder()
+                .beginControlFlow("synchronized ($N)", lock)
+                .add(code)
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Returns an expression converting the given value from the serialized type to the deserialized type. A
+     * {@linkplain #isDefaultOnMissing() missing value} is replaced with the cached deserialized default value.
+     * @param value an expression that is evaluated twice when missing values are replaced
+     */
+    public CodeBlock deserializeOrDefault(CodeBlock value) {
+        if (defaultOnMissing) {
+            return CodeBlock.of("$L == null ? $N() : $L", value, defaultAccessor, deserialize(value));
+        } else {
+            return deserialize(value);
+        }
+    }
+
+    /**
+     * Creates a method deserializing the default value on first use. The result is cached in the given field, which
+     * is initialized with {@link #NO_VALUE} since the deserialized default value might be {@code null}.
+     */
+    private MethodSpec defaultAccessor(FieldSpec field, CodeBlock initializer) {
+        var type = TypeName.get(deserializedType);
+        var accessor = MethodSpec.methodBuilder(field.name)
+                .addModifiers(Modifier.PRIVATE)
+                .returns(type);
+        if (type instanceof ParameterizedTypeName) {
+            accessor.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build());
+        }
+        return accessor.addStatement("var value = $N", field)
+                .beginControlFlow("if (value == $N)", NO_VALUE)
+                .beginControlFlow("synchronized (this)")
+                .addStatement("value = $N", field)
+                .addStatement("if (value == $N) $N = value = $L", NO_VALUE, field, initializer)
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return ($T) value", type.box())
+                .build();
+    }
+
+    /**
+     * Creates the field holding the preference key. When string resources are available at compile time the key is
+     * inlined as a constant.
+     * @return the field or {@code null} if the string resource could not be found
+     */
+    static FieldSpec key(Context context, String name, String resource) {
+        var strings = context.getStrings();
+        if (strings != null) {
+            var value = strings.get(resource);
+            if (value == null) {
+                context.error("Missing string resource: %s", resource);
+                return null;
+            }
+            return FieldSpec.builder(String.class, name, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$S", value)
+                    .build();
+        } else if (context.isLazyKeys()) {
+            return FieldSpec.builder(String.class, name, Modifier.PRIVATE).build();
+        } else {
+            return FieldSpec.builder(String.class, name, Modifier.PRIVATE, Modifier.FINAL).build();
+        }
+    }
+
+    /**
+     * Creates a condition comparing the {@code serializedValue} with the stored value without boxing.
+     */
+    private static CodeBlock isUnchanged(TypeMirror type, CodeBlock value) {
+        return isEqual(type, value, CodeBlock.of("serializedValue"));
+    }
+
+    /**
+     * Creates a condition comparing two serialized values without boxing.
+     */
+    static CodeBlock isEqual(TypeMirror type, CodeBlock first, CodeBlock second) {
+        switch (type.getKind()) {
+            case FLOAT:
+                return CodeBlock.of("$T.compare($L, $L) == 0", Float.class, first, second);
+            case DOUBLE:
+                return CodeBlock.of("$T.compare($L, $L) == 0", Double.class, first, second);
+            case DECLARED:
+                return CodeBlock.of("$T.equals($L, $L)", ClassNames.OBJECTS, first, second);
+            default:
+                return CodeBlock.of("$L == $L", first, second);
+        }
+    }
+
     private static boolean check(Context context, Preference preference) {
         if (!StringUtils.isJavaIdentifier(preference.name())) {
             context.error("Illegal preference name: %s", preference.name());
@@ -114,6 +598,19 @@ public class PreferenceSpec {
         return true;
     }
 
+    private static boolean checkCounter(Context context, Preference preference, SerializerSpec serializerSpec, boolean memoryOnly) {
+        var kind = serializerSpec.getSerializedType().getKind();
+        if (kind != TypeKind.INT && kind != TypeKind.LONG || serializerSpec.getSerializerExpression() != null) {
+            context.error("Counter preferences must be of type int or long: %s", preference.name());
+            return false;
+        } else if (memoryOnly) {
+            context.error("Counter preferences cannot be memory-only: %s", preference.name());
+            return false;
+        }
+
+        return true;
+    }
+
     private static boolean checkType(Context context, TypeMirror type) {
         switch (type.getKind()) {
             case BOOLEAN:
@@ -144,12 +641,16 @@ public class PreferenceSpec {
         }
     }
 
+    private static boolean isString(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && String.class.getName().equals(type.toString());
+    }
+
     private static void addJavadoc(MethodSpec.Builder method, String description, TypeMirror type, Object defaultValue) {
         if (description.isEmpty()) return;
 
         method.addJavadoc(description);
 
-        if (type.getKind() == TypeKind.DECLARED && String.class.getName().equals(type.toString())) {
+        if (isString(type)) {
             method.addJavadoc("\n(default: $S)", defaultValue);
         } else {
             method.addJavadoc("\n(default: $L)", defaultValue);
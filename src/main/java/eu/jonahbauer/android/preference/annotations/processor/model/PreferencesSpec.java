@@ -1,8 +1,11 @@
 package eu.jonahbauer.android.preference.annotations.processor.model;
 
 import com.squareup.javapoet.*;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
 import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.WritePolicy;
 import eu.jonahbauer.android.preference.annotations.processor.ClassNames;
+import eu.jonahbauer.android.preference.annotations.processor.StringResources;
 import eu.jonahbauer.android.preference.annotations.processor.StringUtils;
 import eu.jonahbauer.android.preference.annotations.processor.TypeUtils;
 import lombok.Value;
@@ -10,6 +13,15 @@ import lombok.Value;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Value
 public class PreferencesSpec {
@@ -22,6 +34,18 @@ public class PreferencesSpec {
 
         context.setFluent(root.fluent());
         context.setEditor(root.editor());
+        context.setSnapshot(root.snapshot());
+        context.setListeners(root.listeners());
+        context.setPublishers(root.publishers());
+        context.setCache(root.cache());
+        context.setSkipUnchangedWrites(root.skipUnchangedWrites());
+        context.setUpdate(root.update());
+        if (!strings(context)) return null;
+        context.setLazyKeys(root.lazyKeys() && context.getStrings() == null);
+        context.setLazyGroups(root.lazyGroups());
+        context.setLazySerializers(root.lazySerializers());
+        context.setStore(root.store());
+        context.setSlots(root.slots());
 
         var name = name(root);
         context.setRoot(name);
@@ -29,7 +53,8 @@ public class PreferencesSpec {
         var r = TypeName.get(TypeUtils.mirror(root, Preferences::r));
         context.setR(r);
 
-        var builder = TypeSpec.classBuilder(name);
+        // the generated class only depends on the annotated element, so that the processor is isolating
+        var builder = TypeSpec.classBuilder(name).addOriginatingElement(element);
 
         if (root.makeFile()) {
             builder.addModifiers(Modifier.PUBLIC, Modifier.FINAL);
@@ -37,28 +62,159 @@ public class PreferencesSpec {
 
         builder.addMethod(constructor(root));
 
-        // shared preferences
-        var sharedPreferencesField = FieldSpec.builder(ClassNames.SHARED_PREFERENCES, "sharedPreferences", Modifier.PRIVATE, Modifier.STATIC).build();
+        // shared preferences or preference store
+        var sharedPreferencesField = FieldSpec.builder(context.getStoreType(), context.isStore() ? "store" : "sharedPreferences", Modifier.PRIVATE, Modifier.STATIC).build();
         context.setSharedPreferences(sharedPreferencesField);
         builder.addField(sharedPreferencesField);
 
+        // shared preferences of groups with their own file
+        var files = new LinkedHashMap<String, FieldSpec>();
+        for (PreferenceGroup group : root.value()) {
+            if (group.file().isEmpty() || files.containsKey(group.file())) continue;
+
+            var field = FieldSpec.builder(context.getStoreType(), sharedPreferencesField.name + "$" + files.size(), Modifier.PRIVATE, Modifier.STATIC).build();
+            files.put(group.file(), field);
+            builder.addField(field);
+        }
+
+        // preferences whose values are not written immediately, including all values stored in slots, and a single
+        // executor for all asynchronous writes
+        var preferences = Arrays.stream(root.value()).flatMap(group -> Arrays.stream(group.value())).collect(Collectors.toList());
+        var pending = root.slots() || preferences.stream().anyMatch(preference -> WritePolicySpec.writePolicy(preference) != WritePolicy.IMMEDIATE);
+        var scheduled = root.slots() || root.coalesceWrites() && root.coalesceWindow() > 0 || preferences.stream().anyMatch(
+                preference -> WritePolicySpec.writePolicy(preference) == WritePolicy.DEBOUNCED && preference.debounceWindow() > 0
+        );
+        if (pending || scheduled) {
+            var deferredWrites = DeferredWritesSpec.create(context, pending, scheduled);
+            context.setDeferredWrites(deferredWrites);
+            deferredWrites.apply(builder);
+        }
+
+        // write coalescing
+        if (root.coalesceWrites()) {
+            var pendingEditor = PendingEditorSpec.create(context, root.coalesceWindow());
+            context.setPendingEditor(pendingEditor);
+            pendingEditor.apply(builder);
+        }
+
+        // serializers shared between preferences
+        var sharedSerializers = new SharedSerializersSpec(name);
+        context.setSharedSerializers(sharedSerializers);
+
+        // resources for lazily instantiated groups
+        if (context.isLazyGroups()) {
+            var resourcesField = FieldSpec.builder(ClassNames.RESOURCES, "resources", Modifier.PRIVATE, Modifier.STATIC).build();
+            context.setResources(resourcesField);
+            builder.addField(resourcesField);
+        }
+
         // init method
-        var initMethod = init(sharedPreferencesField);
+        var initMethod = init(context, sharedPreferencesField, files);
+        if (context.isLazyGroups()) {
+            initMethod.addStatement("$N = pResources", context.getResources());
+        }
 
         // group classes, fields, accessors and init statements
+        var groupSpecs = new ArrayList<PreferenceGroupSpec>();
+        var reloadedGroups = new ArrayList<PreferenceGroupSpec>();
+        var cachedGroups = new ArrayList<PreferenceGroupSpec>();
+        var flushedGroups = new ArrayList<PreferenceGroupSpec>();
+        var listenedGroups = new ArrayList<PreferenceGroupSpec>();
+        var publishedGroups = new ArrayList<PreferenceGroupSpec>();
         var groups = root.value();
         for (int i = 0; i < groups.length; i++) {
+            // the group code accesses the shared preferences of its file through the context
+            context.setSharedPreferences(files.getOrDefault(groups[i].file(), sharedPreferencesField));
             var spec = PreferenceGroupSpec.create(context, i, groups[i]);
+            context.setSharedPreferences(sharedPreferencesField);
             if (spec == null) continue;
 
             spec.apply(builder);
+            groupSpecs.add(spec);
+
+            if (!context.isLazyGroups()) {
+                initMethod.addStatement("$N = new $T(pResources)", spec.getField(), spec.getName());
+            }
+
+            if (spec.getReload() != null) {
+                reloadedGroups.add(spec);
+            }
+
+            if (spec.getInvalidate() != null) {
+                cachedGroups.add(spec);
+            }
 
-            initMethod.addStatement("$N = new $T(pResources)", spec.getField(), spec.getName());
+            if (spec.getFlush() != null) {
+                flushedGroups.add(spec);
+            }
+
+            if (spec.getDispatch() != null) {
+                listenedGroups.add(spec);
+            }
+
+            if (spec.getPublish() != null) {
+                publishedGroups.add(spec);
+            }
+        }
+
+        sharedSerializers.apply(builder);
+
+        // slot reloading, cache invalidation, listener dispatch and publishers with one change listener per file that
+        // only notifies the groups backed by that file, since different files may use the same keys
+        var listenedFiles = new ArrayList<FieldSpec>();
+        listenedFiles.add(sharedPreferencesField);
+        listenedFiles.addAll(files.values());
+        for (int i = 0; i < listenedFiles.size(); i++) {
+            var file = listenedFiles.get(i);
+            var code = CodeBlock.builder()
+                    .add(invoke(context, backedBy(reloadedGroups, file), PreferenceGroupSpec::getReload, CodeBlock.of("key")))
+                    .add(invoke(context, backedBy(cachedGroups, file), PreferenceGroupSpec::getInvalidate, CodeBlock.of("key")))
+                    // listeners are notified after invalidation so that they observe the new values
+                    .add(invoke(context, backedBy(listenedGroups, file), PreferenceGroupSpec::getDispatch, CodeBlock.of("key")))
+                    .add(invoke(context, backedBy(publishedGroups, file), PreferenceGroupSpec::getPublish, CodeBlock.of("key")))
+                    .build();
+            if (code.isEmpty()) continue;
+
+            var listenerName = i == 0 ? "changeListener" : "changeListener$" + (i - 1);
+            var changeListenerField = FieldSpec.builder(context.getStoreListenerType(), listenerName, Modifier.PRIVATE, Modifier.STATIC).build();
+            builder.addField(changeListenerField);
+
+            initMethod.addCode(CodeBlock.builder()
+                    .add("$N = (preferences, key) -> {\n", changeListenerField)
+                    .indent()
+                    .add(code)
+                    .unindent()
+                    .addStatement("}")
+                    .build()
+            );
+            initMethod.addStatement("$N.$L($N)", file, context.getRegisterListenerMethod(), changeListenerField);
+        }
+
+        if (context.isSnapshot()) {
+            PreferenceSnapshotSpec.create(context, groupSpecs).apply(builder);
+        }
+
+        if (context.isEditor()) {
+            PreferenceEditorSpec.create(context, groupSpecs).apply(builder);
         }
 
         builder.addMethod(initMethod.build());
-        builder.addMethod(clear(sharedPreferencesField));
-        builder.addMethod(getSharedPreferences(sharedPreferencesField));
+        if (context.getDeferredWrites() != null && context.getDeferredWrites().isPending()) {
+            builder.addMethod(flushPending(context, invoke(context, flushedGroups, PreferenceGroupSpec::getFlush, CodeBlock.of(""))));
+        }
+        builder.addMethod(clear(context, files.values(), invoke(context, flushedGroups, PreferenceGroupSpec::getDiscard, CodeBlock.of("")), CodeBlock.builder()
+                .add(invoke(context, reloadedGroups, PreferenceGroupSpec::getReload, CodeBlock.of("null")))
+                .add(invoke(context, cachedGroups, PreferenceGroupSpec::getInvalidate, CodeBlock.of("null")))
+                .build()
+        ));
+        if (context.isStore()) {
+            var store = SharedPreferencesStoreSpec.create(name);
+            store.apply(builder);
+            builder.addMethod(initSharedPreferences(store, context.getStrings() == null, !files.isEmpty()));
+            builder.addMethod(getPreferenceStore(sharedPreferencesField));
+        } else {
+            builder.addMethod(getSharedPreferences(sharedPreferencesField));
+        }
 
         return new PreferencesSpec(JavaFile.builder(name.packageName(), builder.build()).indent("    ").build());
     }
@@ -67,10 +223,31 @@ public class PreferencesSpec {
         if (!StringUtils.isFQCN(root.name())) {
             context.error("Illegal preference class name: %s", root.name());
             return false;
+        } else if (root.coalesceWrites() && Arrays.stream(root.value()).anyMatch(group -> !group.file().isEmpty())) {
+            // all setters stage their changes in a single editor of the default shared preferences
+            context.error("Preference files are not supported together with write coalescing.");
+            return false;
         }
         return true;
     }
 
+    /**
+     * Loads the string resources from the files specified via the {@value StringResources#OPTION} processor option.
+     * @return {@code false} if the string resources could not be loaded
+     */
+    private static boolean strings(Context context) {
+        var paths = context.getOptions().get(StringResources.OPTION);
+        if (paths == null) return true;
+
+        try {
+            context.setStrings(StringResources.parse(paths));
+            return true;
+        } catch (IOException e) {
+            context.error("Could not load string resources: %s", e.getMessage());
+            return false;
+        }
+    }
+
     private static ClassName name(Preferences root) {
         return ClassName.get(
                 root.name().lastIndexOf('.') != -1 ? root.name().substring(0, root.name().lastIndexOf('.')) : "",
@@ -85,34 +262,170 @@ public class PreferencesSpec {
                 .build();
     }
 
-    private static MethodSpec.Builder init(FieldSpec sharedPreferencesField) {
-        return MethodSpec.methodBuilder("init")
+    /**
+     * Creates the init method. When the preferences are accessed through a {@code PreferenceStore} the method accepts
+     * an arbitrary {@code PreferenceStore}, otherwise it accepts {@code SharedPreferences}.
+     * @param files the fields holding the instances backing the groups with a {@linkplain PreferenceGroup#file() file}
+     *              by file name
+     * @see Preferences#store()
+     */
+    private static MethodSpec.Builder init(Context context, FieldSpec field, Map<String, FieldSpec> files) {
+        var type = context.getStoreType();
+        var parameter = context.isStore() ? "pStore" : "pSharedPreferences";
+        var resources = context.getStrings() == null;
+
+        var builder = MethodSpec.methodBuilder("init")
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
-                .addParameter(ClassNames.SHARED_PREFERENCES, "pSharedPreferences")
-                .addParameter(ClassNames.RESOURCES, "pResources")
-                .addJavadoc("Initialize this preference class to use the given {@link $T}\n", ClassNames.SHARED_PREFERENCES)
+                .addParameter(type, parameter);
+        if (!files.isEmpty()) builder.addParameter(factory(type), "pFiles");
+        builder.addParameter(ClassNames.RESOURCES, "pResources")
+                .addJavadoc("Initialize this preference class to use the given {@link $T}\n", type)
                 .addJavadoc("This function is supposed to be called from the applications {@code onCreate()} method.\n")
-                .addJavadoc("@param pSharedPreferences the {@link $T} to be used. Not {@code null}.\n", ClassNames.SHARED_PREFERENCES)
-                .addJavadoc("@param pResources the {@link $T} from which the preference keys should be loaded. Not {@code null}.\n", ClassNames.RESOURCES)
-                .addJavadoc("@throws $T if this preference class has already been initialized.\n", ClassNames.ILLEGAL_STATE_EXCEPTION)
-                .addCode(CodeBlock.builder()
-                                 .beginControlFlow("if ($N != null)", sharedPreferencesField)
-                                 .addStatement("throw new $T($S)", ClassNames.ILLEGAL_STATE_EXCEPTION, "Preferences have already been initialized.")
-                                 .endControlFlow()
-                                 .addStatement("$T.requireNonNull(pSharedPreferences, $S)", ClassNames.OBJECTS, "SharedPreferences must not be null.")
-                                 .addStatement("$T.requireNonNull(pResources, $S)", ClassNames.OBJECTS, "Resources must not be null.")
-                                 .addStatement("$N = pSharedPreferences", sharedPreferencesField)
-                                 .build()
-                );
-    }
-
-    private static MethodSpec clear(FieldSpec sharedPreferencesField) {
+                .addJavadoc("@param $L the {@link $T} to be used. Not {@code null}.\n", parameter, type);
+        if (!files.isEmpty()) {
+            builder.addJavadoc("@param pFiles a function returning the {@link $T} backing the preference file with the given name. Not {@code null}.\n", type);
+        }
+        addResourcesJavadoc(builder, resources);
+        builder.addJavadoc("@throws $T if this preference class has already been initialized.\n", ClassNames.ILLEGAL_STATE_EXCEPTION);
+
+        var code = CodeBlock.builder()
+                .beginControlFlow("if ($N != null)", field)
+                .addStatement("throw new $T($S)", ClassNames.ILLEGAL_STATE_EXCEPTION, "Preferences have already been initialized.")
+                .endControlFlow()
+                .addStatement("$T.requireNonNull($N, $S)", ClassNames.OBJECTS, parameter, type.simpleName() + " must not be null.");
+        if (!files.isEmpty()) {
+            code.addStatement("$T.requireNonNull(pFiles, $S)", ClassNames.OBJECTS, "Files must not be null.");
+        }
+        if (resources) {
+            code.addStatement("$T.requireNonNull(pResources, $S)", ClassNames.OBJECTS, "Resources must not be null.");
+        }
+        // the field backing the groups without a file is assigned last, since it indicates initialization
+        files.forEach((file, fileField) -> code.addStatement(
+                "$N = $T.requireNonNull(pFiles.apply($S), $S)", fileField, ClassNames.OBJECTS, file, type.simpleName() + " for file " + file + " must not be null."
+        ));
+        code.addStatement("$N = $N", field, parameter);
+
+        return builder.addCode(code.build());
+    }
+
+    /**
+     * Creates an init method of a preference class accessing its preferences through a {@code PreferenceStore}
+     * backed by the given {@code SharedPreferences}.
+     * @param files whether there are groups with a {@linkplain PreferenceGroup#file() file}
+     */
+    private static MethodSpec initSharedPreferences(SharedPreferencesStoreSpec store, boolean resources, boolean files) {
+        var builder = MethodSpec.methodBuilder("init")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addParameter(ClassNames.SHARED_PREFERENCES, "pSharedPreferences");
+        if (files) builder.addParameter(factory(ClassNames.SHARED_PREFERENCES), "pFiles");
+        builder.addParameter(ClassNames.RESOURCES, "pResources")
+                .addJavadoc("Initialize this preference class to use a {@link $T} backed by the given {@link $T}\n", ClassNames.PREFERENCE_STORE, ClassNames.SHARED_PREFERENCES)
+                .addJavadoc("This function is supposed to be called from the applications {@code onCreate()} method.\n")
+                .addJavadoc("@param pSharedPreferences the {@link $T} to be used. Not {@code null}.\n", ClassNames.SHARED_PREFERENCES);
+        if (files) {
+            builder.addJavadoc("@param pFiles a function returning the {@link $T} backing the preference file with the given name. Not {@code null}.\n", ClassNames.SHARED_PREFERENCES);
+        }
+        addResourcesJavadoc(builder, resources);
+        builder.addJavadoc("@throws $T if this preference class has already been initialized.\n", ClassNames.ILLEGAL_STATE_EXCEPTION)
+                .addStatement("$T.requireNonNull(pSharedPreferences, $S)", ClassNames.OBJECTS, "SharedPreferences must not be null.");
+        if (files) {
+            builder.addStatement("$T.requireNonNull(pFiles, $S)", ClassNames.OBJECTS, "Files must not be null.")
+                    .addStatement("init(new $1T(pSharedPreferences), file -> new $1T($2T.requireNonNull(pFiles.apply(file))), pResources)", store.getName(), ClassNames.OBJECTS);
+        } else {
+            builder.addStatement("init(new $T(pSharedPreferences), pResources)", store.getName());
+        }
+        return builder.build();
+    }
+
+    private static void addResourcesJavadoc(MethodSpec.Builder builder, boolean resources) {
+        if (resources) {
+            builder.addJavadoc("@param pResources the {@link $T} from which the preference keys should be loaded. Not {@code null}.\n", ClassNames.RESOURCES);
+        } else {
+            builder.addJavadoc("@param pResources unused, since the preference keys have been inlined at compile time.\n");
+        }
+    }
+
+    /**
+     * Returns the type of a function returning the instance of the given type backing a preference file.
+     */
+    private static TypeName factory(ClassName type) {
+        return ParameterizedTypeName.get(ClassName.get(Function.class), ClassName.get(String.class), type);
+    }
+
+    /**
+     * Creates a method writing the pending values of all preferences whose values are not written immediately.
+     * @param flushCode code writing the pending values of all groups
+     * @see eu.jonahbauer.android.preference.annotations.Preference#writePolicy()
+     */
+    private static MethodSpec flushPending(Context context, CodeBlock flushCode) {
+        var builder = MethodSpec.methodBuilder(DeferredWritesSpec.FLUSH_PENDING_METHOD_NAME)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addJavadoc("Writes the values of all preferences that have been changed but not yet been written due to their\n")
+                .addJavadoc("write policy. This method is supposed to be called from lifecycle hooks such as {@code onPause()}.\n");
+        if (context.isSlots()) {
+            builder.addJavadoc("The values of preferences stored in slots are written in batches and are written by this method\n")
+                    .addJavadoc("as well.\n");
+        }
+        if (context.getPendingEditor() != null) {
+            builder.addJavadoc("Afterwards, all changes staged by the generated setters are applied as if by {@link #$N()}.\n", context.getPendingEditor().getFlush());
+        }
+        builder.addJavadoc("@throws $T if this preference class has not yet been initialized.\n", ClassNames.ILLEGAL_STATE_EXCEPTION);
+        addInitCheck(builder, context.getSharedPreferences());
+        builder.addCode(flushCode);
+        if (context.getPendingEditor() != null) {
+            builder.addCode(context.getPendingEditor().flushIfPending());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param files the fields holding the instances backing the groups with a {@linkplain PreferenceGroup#file() file}
+     * @param discardCode code discarding the pending values of all groups
+     */
+    private static MethodSpec clear(Context context, Collection<FieldSpec> files, CodeBlock discardCode, CodeBlock invalidateCode) {
+        var sharedPreferencesField = context.getSharedPreferences();
         var builder = MethodSpec.methodBuilder("clear")
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC);
-        return addInitCheck(builder, sharedPreferencesField)
-                .addStatement("$N.edit().clear().apply()", sharedPreferencesField)
-                .addJavadoc("@see $T#clear()", ClassNames.SHARED_PREFERENCES_EDITOR)
-                .build();
+        addInitCheck(builder, sharedPreferencesField);
+
+        builder.addCode(discardCode);
+        if (context.getPendingEditor() != null) {
+            builder.addCode(context.getPendingEditor().discard());
+        }
+
+        builder.addStatement("$N.edit().clear().apply()", sharedPreferencesField);
+        for (FieldSpec field : files) {
+            builder.addStatement("$N.edit().clear().apply()", field);
+        }
+        builder.addJavadoc("@see $T#clear()", context.getStoreEditorType());
+
+        // not all SharedPreferences implementations notify their listeners when being cleared
+        return builder.addCode(invalidateCode).build();
+    }
+
+    /**
+     * Creates code that invokes the given method (e.g. the cache invalidation) of the given groups with the key of a
+     * changed preference. Groups that have not yet been instantiated are skipped.
+     * @param key the key of the changed preference or {@code null} if all preferences have changed, or an empty block
+     *            for methods without parameters
+     */
+    private static CodeBlock invoke(Context context, List<PreferenceGroupSpec> groups, Function<PreferenceGroupSpec, MethodSpec> method, CodeBlock key) {
+        var code = CodeBlock.builder();
+        for (PreferenceGroupSpec group : groups) {
+            if (context.isLazyGroups()) {
+                code.addStatement("if ($N != null) $N.$N($L)", group.getField(), group.getField(), method.apply(group), key);
+            } else {
+                code.addStatement("$N.$N($L)", group.getField(), method.apply(group), key);
+            }
+        }
+        return code.build();
+    }
+
+    /**
+     * Returns those of the given groups that are backed by the given shared preferences.
+     */
+    private static List<PreferenceGroupSpec> backedBy(List<PreferenceGroupSpec> groups, FieldSpec sharedPreferences) {
+        return groups.stream().filter(group -> group.getSharedPreferences().equals(sharedPreferences)).collect(Collectors.toList());
     }
 
     private static MethodSpec getSharedPreferences(FieldSpec sharedPreferencesField) {
@@ -129,6 +442,20 @@ public class PreferencesSpec {
                 .build();
     }
 
+    private static MethodSpec getPreferenceStore(FieldSpec storeField) {
+        var builder = MethodSpec.methodBuilder("getPreferenceStore")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(ClassNames.PREFERENCE_STORE)
+                .addJavadoc("Returns the underlying {@link $T} instance.\n", ClassNames.PREFERENCE_STORE)
+                .addJavadoc("Modifying the underlying {@code PreferenceStore} instance is not recommended as it can\n")
+                .addJavadoc("lead to invalid data which can cause {@code PreferenceSerializer}s to throw exceptions.\n")
+                .addJavadoc("@throws $T if this preference class has not yet been initialized.\n", ClassNames.ILLEGAL_STATE_EXCEPTION)
+                .addJavadoc("@return the underlying {@code PreferenceStore} instance");
+        return addInitCheck(builder, storeField)
+                .addStatement("return $N", storeField)
+                .build();
+    }
+
     static MethodSpec.Builder addInitCheck(MethodSpec.Builder builder, FieldSpec sharedPreferencesField) {
         return builder.beginControlFlow("if ($N == null)", sharedPreferencesField)
                 .addStatement("throw new $T($S)", ClassNames.ILLEGAL_STATE_EXCEPTION, "Preferences have not yet been initialized.")
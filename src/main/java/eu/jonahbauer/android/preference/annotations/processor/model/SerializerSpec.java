@@ -1,11 +1,12 @@
 package eu.jonahbauer.android.preference.annotations.processor.model;
 
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.TypeName;
 import eu.jonahbauer.android.preference.annotations.Preference;
 import eu.jonahbauer.android.preference.annotations.processor.TypeUtils;
-import eu.jonahbauer.android.preference.annotations.serializer.EnumPreferenceSerializer;
-import eu.jonahbauer.android.preference.annotations.serializer.PreferenceSerializer;
+import eu.jonahbauer.android.preference.annotations.serializer.*;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Value;
@@ -14,15 +15,51 @@ import javax.lang.model.element.*;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.ExecutableType;
 import javax.lang.model.type.TypeMirror;
+import java.util.Map;
 import java.util.Set;
 
 @Value
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class SerializerSpec {
+    private static final Map<Class<?>, String> PRIMITIVE_SERIALIZERS = Map.of(
+            IntPreferenceSerializer.class, "Int",
+            LongPreferenceSerializer.class, "Long",
+            FloatPreferenceSerializer.class, "Float",
+            BooleanPreferenceSerializer.class, "Boolean"
+    );
+
     TypeMirror deserializedType;
     TypeMirror serializedType;
     FieldSpec serializer;
 
+    /**
+     * A method instantiating the serializer on first use or {@code null} if the serializer is instantiated eagerly.
+     */
+    MethodSpec serializerAccessor;
+
+    /**
+     * An expression evaluating to a {@linkplain SharedSerializersSpec shared} serializer instance or {@code null} if
+     * the serializer is not shared.
+     */
+    CodeBlock sharedSerializer;
+
+    /**
+     * The name of the serializers method for converting from runtime type to persistent type.
+     */
+    String serializeMethod;
+
+    /**
+     * The name of the serializers method for converting from persistent type to runtime type.
+     */
+    String deserializeMethod;
+
+    /**
+     * The name of a method of the serializer that deserializes unknown values to {@code null} instead of throwing an
+     * exception or {@code null} if there is no such method. The generated code replaces {@code null} with the default
+     * value.
+     */
+    String fallbackMethod;
+
     public static SerializerSpec create(Context context, int index, Preference preference) {
         var declaredType = TypeUtils.mirror(preference, Preference::type);
 
@@ -71,19 +108,101 @@ public class SerializerSpec {
             context.error("Could not find a suitable constructor in serializer class " + serializerType + ".");
             return new SerializerSpec(declaredType);
         } else {
+            var instance = constructor
+                    ? CodeBlock.of("new $T($T.class)", serializerTypeName, context.tryBox(declaredType))
+                    : CodeBlock.of("new $T()", serializerTypeName);
+
             // build field spec
-            var builder = FieldSpec.builder(serializerTypeName, "serializer$" + index, Modifier.PRIVATE, Modifier.FINAL);
-            if (constructor) {
-                builder.initializer("new $T($T.class)", serializerTypeName, context.tryBox(declaredType));
+            FieldSpec field = null;
+            MethodSpec accessor = null;
+            CodeBlock shared = null;
+            if (preference.shareSerializer()) {
+                shared = context.getSharedSerializers().get(serializerTypeName, instance);
+            } else if (context.isLazySerializers() || preference.lazySerializer()) {
+                field = FieldSpec.builder(serializerTypeName, "serializer$" + index, Modifier.PRIVATE, Modifier.VOLATILE).build();
+                accessor = lazySerializer(field, instance);
             } else {
-                builder.initializer("new $T()", serializerTypeName);
+                field = FieldSpec.builder(serializerTypeName, "serializer$" + index, Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer(instance)
+                        .build();
             }
-            return new SerializerSpec(deserializedType, serializedType, builder.build());
+
+            var suffix = findPrimitiveSerializer(context, serializerType);
+            String fallback = null;
+            if (context.isSame(serializerType, EnumPreferenceSerializer.class)) {
+                fallback = "deserializeOrNull";
+            } else if (context.isSame(serializerType, OrdinalEnumPreferenceSerializer.class)) {
+                fallback = "deserialize" + suffix;
+            }
+            return new SerializerSpec(deserializedType, serializedType, field, accessor, shared, "serialize" + suffix, "deserialize" + suffix, fallback);
         }
     }
 
     private SerializerSpec(TypeMirror type) {
-        this(type, type, null);
+        this(type, type, null, null, null, "serialize", "deserialize", null);
+    }
+
+    /**
+     * Whether the serializer has a {@linkplain #getFallbackMethod() method deserializing unknown values to null}.
+     */
+    public boolean isFallback() {
+        return fallbackMethod != null;
+    }
+
+    /**
+     * Returns an expression evaluating to the serializer instance or {@code null} if there is no serializer.
+     */
+    public CodeBlock getSerializerExpression() {
+        if (sharedSerializer != null) {
+            return sharedSerializer;
+        } else if (serializer == null) {
+            return null;
+        } else if (serializerAccessor != null) {
+            return CodeBlock.of("$N()", serializerAccessor);
+        } else {
+            return CodeBlock.of("$N", serializer);
+        }
+    }
+
+    /**
+     * Returns whether the serializer is instantiated on first use instead of together with the preference group.
+     */
+    public boolean isLazy() {
+        return serializerAccessor != null || sharedSerializer != null;
+    }
+
+    /**
+     * Creates a method instantiating the serializer on first use. The serializer is stored in a {@code volatile}
+     * field (double-checked locking), so that it is constructed at most once and safely published even when the
+     * serializer itself is not thread-safe during construction.
+     */
+    private static MethodSpec lazySerializer(FieldSpec field, CodeBlock instance) {
+        return MethodSpec.methodBuilder(field.name)
+                .addModifiers(Modifier.PRIVATE)
+                .returns(field.type)
+                .addStatement("var serializer = $N", field)
+                .beginControlFlow("if (serializer == null)")
+                .beginControlFlow("synchronized (this)")
+                .addStatement("serializer = $N", field)
+                .addStatement("if (serializer == null) $N = serializer = $L", field, instance)
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return serializer")
+                .build();
+    }
+
+    /**
+     * Checks whether the given serializer implements one of the primitive-specialized serializer interfaces.
+     * @return the suffix of the primitive-specialized methods or an empty string
+     */
+    private static String findPrimitiveSerializer(Context context, DeclaredType serializer) {
+        var types = context.getTypeUtils();
+        for (var entry : PRIMITIVE_SERIALIZERS.entrySet()) {
+            if (types.isAssignable(types.erasure(serializer), types.erasure(context.getType(entry.getKey())))) {
+                return entry.getValue();
+            }
+        }
+        return "";
     }
 
     /**
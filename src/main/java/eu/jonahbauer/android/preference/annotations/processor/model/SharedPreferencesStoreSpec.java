@@ -0,0 +1,163 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.*;
+import eu.jonahbauer.android.preference.annotations.processor.ClassNames;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An adapter exposing {@code SharedPreferences} as a {@link eu.jonahbauer.android.preference.annotations.store.PreferenceStore}.
+ * The adapter is generated into the preference class, since the annotation processor does not depend on the Android
+ * framework.
+ * @see eu.jonahbauer.android.preference.annotations.Preferences#store()
+ */
+@Value
+public class SharedPreferencesStoreSpec {
+    private static final String STORE_CLASS_NAME = "SharedPreferencesStore";
+    private static final String EDITOR_CLASS_NAME = "StoreEditor";
+
+    private static final TypeName STRING_SET = ParameterizedTypeName.get(Set.class, String.class);
+
+    /**
+     * The value types supported by both {@code SharedPreferences} and {@code PreferenceStore} by the suffix of their
+     * accessor methods.
+     */
+    private static final Map<String, TypeName> TYPES;
+
+    static {
+        var types = new LinkedHashMap<String, TypeName>();
+        types.put("String", ClassName.get(String.class));
+        types.put("StringSet", STRING_SET);
+        types.put("Int", TypeName.INT);
+        types.put("Long", TypeName.LONG);
+        types.put("Float", TypeName.FLOAT);
+        types.put("Boolean", TypeName.BOOLEAN);
+        TYPES = types;
+    }
+
+    ClassName name;
+    TypeSpec type;
+
+    public static SharedPreferencesStoreSpec create(ClassName root) {
+        var name = root.nestedClass(STORE_CLASS_NAME);
+        var editorName = name.nestedClass(EDITOR_CLASS_NAME);
+
+        var delegate = FieldSpec.builder(ClassNames.SHARED_PREFERENCES, "sharedPreferences", Modifier.PRIVATE, Modifier.FINAL).build();
+        // SharedPreferences only keeps weak references to its listeners
+        var listeners = FieldSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Map.class), ClassNames.PREFERENCE_STORE_LISTENER, ClassNames.ON_SHARED_PREFERENCE_CHANGE_LISTENER),
+                "listeners", Modifier.PRIVATE, Modifier.FINAL
+        ).initializer("new $T<>()", HashMap.class).build();
+
+        var type = TypeSpec.classBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addSuperinterface(ClassNames.PREFERENCE_STORE)
+                .addField(delegate)
+                .addField(listeners)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PRIVATE)
+                        .addParameter(ClassNames.SHARED_PREFERENCES, "sharedPreferences")
+                        .addStatement("this.$N = sharedPreferences", delegate)
+                        .build()
+                );
+
+        type.addMethod(override("getAll", ParameterizedTypeName.get(ClassName.get(Map.class), ClassName.get(String.class), WildcardTypeName.subtypeOf(Object.class)))
+                .addStatement("return $N.getAll()", delegate)
+                .build()
+        );
+        TYPES.forEach((suffix, valueType) -> type.addMethod(override("get" + suffix, valueType)
+                .addParameter(String.class, "key")
+                .addParameter(valueType, "defValue")
+                .addStatement("return $N.get$L(key, defValue)", delegate, suffix)
+                .build()
+        ));
+        type.addMethod(override("contains", TypeName.BOOLEAN)
+                .addParameter(String.class, "key")
+                .addStatement("return $N.contains(key)", delegate)
+                .build()
+        );
+        type.addMethod(override("edit", ClassNames.PREFERENCE_STORE_EDITOR)
+                .addStatement("return new $T($N.edit())", editorName, delegate)
+                .build()
+        );
+        type.addMethod(override("registerOnChangeListener", TypeName.VOID)
+                .addParameter(ClassNames.PREFERENCE_STORE_LISTENER, "listener")
+                .beginControlFlow("synchronized ($N)", listeners)
+                .addStatement("var adapter = $N.computeIfAbsent(listener, l -> (preferences, key) -> l.onChanged(this, key))", listeners)
+                .addStatement("$N.registerOnSharedPreferenceChangeListener(adapter)", delegate)
+                .endControlFlow()
+                .build()
+        );
+        type.addMethod(override("unregisterOnChangeListener", TypeName.VOID)
+                .addParameter(ClassNames.PREFERENCE_STORE_LISTENER, "listener")
+                .beginControlFlow("synchronized ($N)", listeners)
+                .addStatement("var adapter = $N.remove(listener)", listeners)
+                .addStatement("if (adapter != null) $N.unregisterOnSharedPreferenceChangeListener(adapter)", delegate)
+                .endControlFlow()
+                .build()
+        );
+        type.addType(editor(editorName));
+
+        return new SharedPreferencesStoreSpec(name, type.build());
+    }
+
+    private static TypeSpec editor(ClassName name) {
+        var delegate = FieldSpec.builder(ClassNames.SHARED_PREFERENCES_EDITOR, "editor", Modifier.PRIVATE, Modifier.FINAL).build();
+
+        var type = TypeSpec.classBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addSuperinterface(ClassNames.PREFERENCE_STORE_EDITOR)
+                .addField(delegate)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PRIVATE)
+                        .addParameter(ClassNames.SHARED_PREFERENCES_EDITOR, "editor")
+                        .addStatement("this.$N = editor", delegate)
+                        .build()
+                );
+
+        TYPES.forEach((suffix, valueType) -> type.addMethod(override("put" + suffix, ClassNames.PREFERENCE_STORE_EDITOR)
+                .addParameter(String.class, "key")
+                .addParameter(valueType, "value")
+                .addStatement("$N.put$L(key, value)", delegate, suffix)
+                .addStatement("return this")
+                .build()
+        ));
+        type.addMethod(override("remove", ClassNames.PREFERENCE_STORE_EDITOR)
+                .addParameter(String.class, "key")
+                .addStatement("$N.remove(key)", delegate)
+                .addStatement("return this")
+                .build()
+        );
+        type.addMethod(override("clear", ClassNames.PREFERENCE_STORE_EDITOR)
+                .addStatement("$N.clear()", delegate)
+                .addStatement("return this")
+                .build()
+        );
+        type.addMethod(override("commit", TypeName.BOOLEAN)
+                .addStatement("return $N.commit()", delegate)
+                .build()
+        );
+        type.addMethod(override("apply", TypeName.VOID)
+                .addStatement("$N.apply()", delegate)
+                .build()
+        );
+
+        return type.build();
+    }
+
+    private static MethodSpec.Builder override(String name, TypeName returns) {
+        return MethodSpec.methodBuilder(name)
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(returns);
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        builder.addType(type);
+    }
+}
@@ -0,0 +1,54 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.*;
+
+import javax.lang.model.element.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializer instances shared by all preferences of a preference class that use the same serializer for the same
+ * type. Every distinct serializer is held by a separate holder class, so that it is instantiated on first use
+ * (initialization-on-demand holder idiom).
+ * @see eu.jonahbauer.android.preference.annotations.Preference#shareSerializer()
+ */
+public final class SharedSerializersSpec {
+    private static final String HOLDER_CLASS_NAME = "SerializerHolder$";
+    private static final String INSTANCE_FIELD_NAME = "INSTANCE";
+
+    private final ClassName root;
+    private final Map<String, ClassName> names = new HashMap<>();
+    private final List<TypeSpec> holders = new ArrayList<>();
+
+    public SharedSerializersSpec(ClassName root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns an expression evaluating to the shared serializer created by the given expression.
+     * @param type the serializer type
+     * @param instance an expression creating a new serializer instance
+     */
+    public CodeBlock get(TypeName type, CodeBlock instance) {
+        // the instance creation expression contains both the serializer type and the deserialized type
+        var name = names.computeIfAbsent(instance.toString(), key -> {
+            var holder = root.nestedClass(HOLDER_CLASS_NAME + holders.size());
+            holders.add(TypeSpec.classBuilder(holder)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .addField(FieldSpec.builder(type, INSTANCE_FIELD_NAME, Modifier.STATIC, Modifier.FINAL)
+                            .initializer(instance)
+                            .build()
+                    )
+                    .build()
+            );
+            return holder;
+        });
+        return CodeBlock.of("$T.$N", name, INSTANCE_FIELD_NAME);
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        holders.forEach(builder::addType);
+    }
+}
@@ -0,0 +1,117 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.*;
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.processor.StringUtils;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+import java.util.function.UnaryOperator;
+
+/**
+ * The update method of a preference, which atomically replaces the value with the result of a function. The setter
+ * and the update method are serialized using the {@linkplain PreferenceSpec#getLock() lock} of the preference.
+ * @see Preference#update()
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class UpdateSpec {
+    /**
+     * A method reading the current serialized value, i.e. the pending or the stored value, or {@code null} if the
+     * preference is memory-only.
+     */
+    MethodSpec current;
+    MethodSpec update;
+
+    /**
+     * Creates the update method of a preference stored in the {@code SharedPreferences}. The value is deserialized and
+     * the result serialized exactly once per attempt.
+     * @param preference a preference whose lock and write policy have been created
+     * @param write code writing the {@code serializedValue}
+     * @param prepare code to be executed before reading the current value
+     * @param value an expression reading the current value
+     * @param pendingEditor the pending editor whose staged changes are applied before reading the current value or
+     *                      {@code null}
+     */
+    public static UpdateSpec create(PreferenceSpec preference, CodeBlock write, CodeBlock prepare, CodeBlock value, PendingEditorSpec pendingEditor, String description) {
+        var current = current(preference, prepare, value, pendingEditor);
+        var serialized = preference.getSerializerExpression() == null
+                ? CodeBlock.of("value")
+                : CodeBlock.of("$L.$N(value)", preference.getSerializerExpression(), preference.getSerializeMethod());
+        var update = builder(preference, description)
+                .beginControlFlow("while (true)")
+                .addStatement("var expected = $N()", current)
+                .addStatement("var value = function.apply($L)", preference.deserializeOrDefault(CodeBlock.of("expected")))
+                .addStatement("$T serializedValue = $L", TypeName.get(preference.getSerializedType()), serialized)
+                .beginControlFlow("synchronized ($N)", preference.getLock())
+                .addStatement("if (!($L)) continue", PreferenceSpec.isEqual(preference.getSerializedType(), CodeBlock.of("$N()", current), CodeBlock.of("expected")))
+                .addCode(write)
+                .endControlFlow()
+                .addStatement("return")
+                .endControlFlow()
+                .build();
+        return new UpdateSpec(current, update);
+    }
+
+    /**
+     * Creates the update method of a memory-only preference.
+     * @param preference a memory-only preference whose lock has been created
+     * @param notify code notifying listeners and publishers
+     */
+    public static UpdateSpec createMemoryOnly(PreferenceSpec preference, CodeBlock notify, String description) {
+        var memory = preference.getMemory();
+        var update = builder(preference, description)
+                .beginControlFlow("while (true)")
+                .addStatement("var expected = $N", memory)
+                .addStatement("var value = function.apply(expected)")
+                .beginControlFlow("synchronized ($N)", preference.getLock())
+                .addStatement("if ($N != expected) continue", memory)
+                .addStatement("$N = value", memory)
+                .endControlFlow()
+                .addCode(notify)
+                .addStatement("return")
+                .endControlFlow()
+                .build();
+        return new UpdateSpec(null, update);
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        if (current != null) builder.addMethod(current);
+        builder.addMethod(update);
+    }
+
+    /**
+     * Creates a method returning the pending or stored serialized value.
+     */
+    private static MethodSpec current(PreferenceSpec preference, CodeBlock prepare, CodeBlock value, PendingEditorSpec pendingEditor) {
+        var type = TypeName.get(preference.getSerializedType());
+        var builder = MethodSpec.methodBuilder("current$" + preference.getIndex())
+                .addModifiers(Modifier.PRIVATE)
+                .returns(type);
+        if (preference.getWritePolicy() != null && type instanceof ParameterizedTypeName) {
+            builder.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build());
+        }
+        if (pendingEditor != null) builder.addCode(pendingEditor.flushIfPending());
+        return builder.addCode(prepare)
+                .addStatement("return $L", value)
+                .build();
+    }
+
+    /**
+     * Creates a method that applies a function to the value outside any lock and stores the result only if the value
+     * has not been changed in the meantime.
+     */
+    private static MethodSpec.Builder builder(PreferenceSpec preference, String description) {
+        var function = ParameterizedTypeName.get(ClassName.get(UnaryOperator.class), TypeName.get(preference.getDeserializedType()).box());
+        var builder = MethodSpec.methodBuilder("update" + StringUtils.capitalize(preference.getName()))
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(function, "function");
+        if (!description.isEmpty()) {
+            builder.addJavadoc("Atomically replaces $L with the result of applying {@code function} to it.\n", description)
+                    .addJavadoc("The function may be applied multiple times when the value is changed concurrently.");
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,186 @@
+package eu.jonahbauer.android.preference.annotations.processor.model;
+
+import com.squareup.javapoet.*;
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.WritePolicy;
+import eu.jonahbauer.android.preference.annotations.processor.ClassNames;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * The fields and methods of a preference whose values are not written immediately. The setter keeps the serialized
+ * value as {@linkplain #getPending() pending value}, which is written when it is {@linkplain #getFlush() flushed}.
+ * @see Preference#writePolicy()
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class WritePolicySpec {
+    /**
+     * A field holding the serialized value that has been passed to the setter but not yet been written.
+     */
+    FieldSpec pending;
+
+    /**
+     * A field tracking whether a write of the {@linkplain #getPending() pending value} has been scheduled or
+     * {@code null} if writes are not scheduled.
+     */
+    FieldSpec scheduled;
+
+    /**
+     * A field collecting the increments of a counter that have not yet been added to the
+     * {@linkplain #getPending() pending value} or {@code null} if the preference is not a counter.
+     * @see CounterSpec
+     */
+    FieldSpec counter;
+
+    /**
+     * A lock serializing concurrent {@linkplain #getFlush() flushes}. For counters this is the
+     * {@linkplain #getCounter() counter} itself.
+     */
+    FieldSpec flushLock;
+
+    /**
+     * A method writing the {@linkplain #getPending() pending value}.
+     */
+    MethodSpec flush;
+
+    /**
+     * Code keeping the {@code serializedValue} as {@linkplain #getPending() pending value} and scheduling a write if
+     * the value is written after a delay and no write has been scheduled yet.
+     */
+    CodeBlock deferredWrite;
+
+    /**
+     * @param cache the field caching the deserialized value or {@code null} if the value is not cached
+     * @param write code writing the {@code serializedValue}
+     * @param stored an expression reading the stored value
+     * @param pendingEditor the pending editor whose staged changes are applied before reading the stored value or
+     *                      {@code null}
+     * @return the spec or {@code null} if the value is written immediately
+     */
+    public static WritePolicySpec create(Context context, int index, Preference preference, TypeMirror serializedType, FieldSpec cache, CodeBlock write, CodeBlock stored, PendingEditorSpec pendingEditor) {
+        var policy = writePolicy(preference);
+        if (policy == WritePolicy.IMMEDIATE) return null;
+
+        var pending = FieldSpec.builder(Object.class, "pending$" + index, Modifier.PRIVATE, Modifier.VOLATILE)
+                .initializer("$N", PreferenceSpec.NO_VALUE)
+                .build();
+
+        FieldSpec scheduled = null;
+        if (policy == WritePolicy.DEBOUNCED && preference.debounceWindow() > 0) {
+            // increments check whether a write has been scheduled without acquiring the groups lock
+            var modifiers = preference.counter() ? new Modifier[] {Modifier.PRIVATE, Modifier.VOLATILE} : new Modifier[] {Modifier.PRIVATE};
+            scheduled = FieldSpec.builder(boolean.class, "scheduled$" + index, modifiers).build();
+        }
+
+        FieldSpec counter = null;
+        FieldSpec flushLock;
+        if (preference.counter()) {
+            counter = FieldSpec.builder(ClassNames.LONG_ADDER, "counter$" + index, Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T()", ClassNames.LONG_ADDER)
+                    .build();
+            flushLock = counter;
+        } else {
+            flushLock = FieldSpec.builder(Object.class, "flushLock$" + index, Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T()", Object.class)
+                    .build();
+        }
+
+        var flush = flush(index, serializedType, pending, scheduled, counter, flushLock, write, stored, pendingEditor);
+        var deferredWrite = deferredWrite(context.getDeferredWrites(), preference.debounceWindow(), pending, scheduled, counter, cache, flush);
+        return new WritePolicySpec(pending, scheduled, counter, flushLock, flush, deferredWrite);
+    }
+
+    public void apply(TypeSpec.Builder builder) {
+        builder.addField(pending);
+        if (scheduled != null) builder.addField(scheduled);
+        if (counter != null) builder.addField(counter);
+        if (flushLock != counter) builder.addField(flushLock);
+        builder.addMethod(flush);
+    }
+
+    /**
+     * Returns the effective write policy of the given preference. Counters are never written immediately.
+     * @see Preference#counter()
+     */
+    static WritePolicy writePolicy(Preference preference) {
+        var policy = preference.writePolicy();
+        return policy == WritePolicy.IMMEDIATE && preference.counter() ? WritePolicy.DEBOUNCED : policy;
+    }
+
+    /**
+     * Creates a method writing the pending value. The pending value is only discarded after it has been written, so
+     * that the getter does not observe the old value in the meantime, and only if it has not been replaced by a
+     * concurrent setter. The groups lock must not be held while writing, since applying the changes may notify the
+     * change listener which in turn acquires the groups lock.
+     * <p>
+     * Instead, concurrent flushes (e.g. a scheduled write and {@code flushPending}) are serialized using the flush
+     * lock, which is held from reading the pending value until it has been written. Otherwise, a flush that has read
+     * an older pending value could write it after a flush that has read a newer one.
+     * <p>
+     * The collected increments of a counter are added to the pending or stored value first. Coalesced writes are
+     * applied first, so that the stored value is up-to-date.
+     */
+    private static MethodSpec flush(int index, TypeMirror serializedType, FieldSpec pending, FieldSpec scheduled, FieldSpec counter, FieldSpec flushLock, CodeBlock write, CodeBlock stored, PendingEditorSpec pendingEditor) {
+        var type = TypeName.get(serializedType);
+        var builder = MethodSpec.methodBuilder("flush$" + index)
+                .addModifiers(Modifier.PRIVATE);
+        if (type instanceof ParameterizedTypeName) {
+            builder.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build());
+        }
+
+        builder.beginControlFlow("synchronized ($N)", flushLock);
+        if (counter != null && pendingEditor != null) builder.addCode(pendingEditor.flushIfPending());
+        builder.addStatement("$T pending", Object.class)
+                .beginControlFlow("synchronized (this)");
+        if (scheduled != null) builder.addStatement("$N = false", scheduled);
+        if (counter != null) {
+            builder.addStatement("var delta = $N.sum()", counter)
+                    .beginControlFlow("if (delta != 0)")
+                    .addStatement("$N.add(-delta)", counter)
+                    .addStatement("var current = $N", pending)
+                    .addStatement("$N = ($T) ((current != $N ? ($T) current : $L) + delta)", pending, type, PreferenceSpec.NO_VALUE, type, stored)
+                    .endControlFlow();
+        }
+        builder.addStatement("pending = $N", pending)
+                .endControlFlow()
+                .addStatement("if (pending == $N) return", PreferenceSpec.NO_VALUE)
+                .addStatement("var serializedValue = ($T) pending", type)
+                .beginControlFlow("try")
+                .addCode(write)
+                .nextControlFlow("finally")
+                .beginControlFlow("synchronized (this)")
+                .addStatement("if ($N == pending) $N = $N", pending, pending, PreferenceSpec.NO_VALUE)
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow();
+        return builder.build();
+    }
+
+    /**
+     * Returns code that keeps the {@code serializedValue} as pending value and schedules a write if the value is
+     * written after a delay and no write has been scheduled yet.
+     */
+    private static CodeBlock deferredWrite(DeferredWritesSpec deferredWrites, long window, FieldSpec pending, FieldSpec scheduled, FieldSpec counter, FieldSpec cache, MethodSpec flush) {
+        var setter = CodeBlock.builder();
+        if (scheduled != null) setter.addStatement("boolean schedule");
+        setter.beginControlFlow("synchronized (this)")
+                .addStatement("$N = serializedValue", pending);
+        if (cache != null) setter.addStatement("$N = $N", cache, PreferenceSpec.NO_VALUE);
+        if (counter != null) setter.addStatement("$N.reset()", counter);
+        if (scheduled != null) {
+            setter.addStatement("schedule = !$N", scheduled)
+                    .addStatement("$N = true", scheduled);
+        }
+        setter.endControlFlow();
+        if (scheduled != null) {
+            setter.add("if (schedule) ")
+                    .add(deferredWrites.schedule(CodeBlock.of("this::$N", flush), window));
+        }
+        return setter.build();
+    }
+}
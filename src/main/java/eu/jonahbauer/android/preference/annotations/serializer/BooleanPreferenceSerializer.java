@@ -0,0 +1,36 @@
+package eu.jonahbauer.android.preference.annotations.serializer;
+
+/**
+ * A {@link PreferenceSerializer} with persistent type {@code boolean}.
+ * The generated code calls {@link #serializeBoolean(Object)} and {@link #deserializeBoolean(boolean)} directly, so that
+ * the persistent value is never boxed.
+ * @param <S> the runtime type.
+ * @see PreferenceSerializer
+ */
+public interface BooleanPreferenceSerializer<S> extends PreferenceSerializer<S, Boolean> {
+    /**
+     * Convert from runtime type to persistent type.
+     * @param value an object of the runtime type
+     * @return the persistent type representation of the parameter
+     * @throws PreferenceSerializationException if the object could not be serialized
+     */
+    boolean serializeBoolean(S value) throws PreferenceSerializationException;
+
+    /**
+     * Convert from persistent type to runtime type.
+     * @param value the persistent value
+     * @return the runtime type value of the parameter
+     * @throws PreferenceSerializationException if the object could not be deserialized
+     */
+    S deserializeBoolean(boolean value) throws PreferenceSerializationException;
+
+    @Override
+    default Boolean serialize(S value) throws PreferenceSerializationException {
+        return serializeBoolean(value);
+    }
+
+    @Override
+    default S deserialize(Boolean value) throws PreferenceSerializationException {
+        return deserializeBoolean(value);
+    }
+}
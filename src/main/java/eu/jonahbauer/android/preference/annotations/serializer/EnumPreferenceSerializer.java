@@ -1,10 +1,26 @@
 package eu.jonahbauer.android.preference.annotations.serializer;
 
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores enum constants by their {@linkplain Enum#name() name}. Names are resolved with a lookup table that is
+ * computed once. Unknown names (e.g. of renamed constants) cause {@link #deserialize(String)} to throw a
+ * {@link PreferenceSerializationException}, while the generated code uses {@link #deserializeOrNull(String)} and
+ * falls back to the default value.
+ * @see OrdinalEnumPreferenceSerializer
+ */
 public final class EnumPreferenceSerializer<T extends Enum<T>> implements PreferenceSerializer<T, String> {
     private final Class<T> clazz;
+    private final Map<String, T> constants;
 
     public EnumPreferenceSerializer(Class<T> clazz) {
         this.clazz = clazz;
+        var constants = clazz.getEnumConstants();
+        this.constants = new HashMap<>(constants.length * 4 / 3 + 1);
+        for (T constant : constants) {
+            this.constants.put(constant.name(), constant);
+        }
     }
 
     @Override
@@ -15,11 +31,21 @@ public final class EnumPreferenceSerializer<T extends Enum<T>> implements Prefer
 
     @Override
     public T deserialize(String value) {
-        if (value == null) return null;
-        try {
-            return Enum.valueOf(clazz, value);
-        } catch (IllegalArgumentException e) {
-            throw new PreferenceSerializationException(e);
+        var result = deserializeOrNull(value);
+        if (result == null && value != null) {
+            throw new PreferenceSerializationException(new IllegalArgumentException(
+                    "No enum constant " + clazz.getCanonicalName() + "." + value
+            ));
         }
+        return result;
+    }
+
+    /**
+     * Deserializes the given name like {@link #deserialize(String)} but returns {@code null} instead of throwing an
+     * exception if there is no constant with the given name.
+     */
+    public T deserializeOrNull(String value) {
+        if (value == null) return null;
+        return constants.get(value);
     }
 }
@@ -0,0 +1,36 @@
+package eu.jonahbauer.android.preference.annotations.serializer;
+
+/**
+ * A {@link PreferenceSerializer} with persistent type {@code float}.
+ * The generated code calls {@link #serializeFloat(Object)} and {@link #deserializeFloat(float)} directly, so that
+ * the persistent value is never boxed.
+ * @param <S> the runtime type.
+ * @see PreferenceSerializer
+ */
+public interface FloatPreferenceSerializer<S> extends PreferenceSerializer<S, Float> {
+    /**
+     * Convert from runtime type to persistent type.
+     * @param value an object of the runtime type
+     * @return the persistent type representation of the parameter
+     * @throws PreferenceSerializationException if the object could not be serialized
+     */
+    float serializeFloat(S value) throws PreferenceSerializationException;
+
+    /**
+     * Convert from persistent type to runtime type.
+     * @param value the persistent value
+     * @return the runtime type value of the parameter
+     * @throws PreferenceSerializationException if the object could not be deserialized
+     */
+    S deserializeFloat(float value) throws PreferenceSerializationException;
+
+    @Override
+    default Float serialize(S value) throws PreferenceSerializationException {
+        return serializeFloat(value);
+    }
+
+    @Override
+    default S deserialize(Float value) throws PreferenceSerializationException {
+        return deserializeFloat(value);
+    }
+}
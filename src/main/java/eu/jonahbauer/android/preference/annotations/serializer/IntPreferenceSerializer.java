@@ -0,0 +1,36 @@
+package eu.jonahbauer.android.preference.annotations.serializer;
+
+/**
+ * A {@link PreferenceSerializer} with persistent type {@code int}.
+ * The generated code calls {@link #serializeInt(Object)} and {@link #deserializeInt(int)} directly, so that
+ * the persistent value is never boxed.
+ * @param <S> the runtime type.
+ * @see PreferenceSerializer
+ */
+public interface IntPreferenceSerializer<S> extends PreferenceSerializer<S, Integer> {
+    /**
+     * Convert from runtime type to persistent type.
+     * @param value an object of the runtime type
+     * @return the persistent type representation of the parameter
+     * @throws PreferenceSerializationException if the object could not be serialized
+     */
+    int serializeInt(S value) throws PreferenceSerializationException;
+
+    /**
+     * Convert from persistent type to runtime type.
+     * @param value the persistent value
+     * @return the runtime type value of the parameter
+     * @throws PreferenceSerializationException if the object could not be deserialized
+     */
+    S deserializeInt(int value) throws PreferenceSerializationException;
+
+    @Override
+    default Integer serialize(S value) throws PreferenceSerializationException {
+        return serializeInt(value);
+    }
+
+    @Override
+    default S deserialize(Integer value) throws PreferenceSerializationException {
+        return deserializeInt(value);
+    }
+}
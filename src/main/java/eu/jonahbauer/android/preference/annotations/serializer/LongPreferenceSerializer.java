@@ -0,0 +1,36 @@
+package eu.jonahbauer.android.preference.annotations.serializer;
+
+/**
+ * A {@link PreferenceSerializer} with persistent type {@code long}.
+ * The generated code calls {@link #serializeLong(Object)} and {@link #deserializeLong(long)} directly, so that
+ * the persistent value is never boxed.
+ * @param <S> the runtime type.
+ * @see PreferenceSerializer
+ */
+public interface LongPreferenceSerializer<S> extends PreferenceSerializer<S, Long> {
+    /**
+     * Convert from runtime type to persistent type.
+     * @param value an object of the runtime type
+     * @return the persistent type representation of the parameter
+     * @throws PreferenceSerializationException if the object could not be serialized
+     */
+    long serializeLong(S value) throws PreferenceSerializationException;
+
+    /**
+     * Convert from persistent type to runtime type.
+     * @param value the persistent value
+     * @return the runtime type value of the parameter
+     * @throws PreferenceSerializationException if the object could not be deserialized
+     */
+    S deserializeLong(long value) throws PreferenceSerializationException;
+
+    @Override
+    default Long serialize(S value) throws PreferenceSerializationException {
+        return serializeLong(value);
+    }
+
+    @Override
+    default S deserialize(Long value) throws PreferenceSerializationException {
+        return deserializeLong(value);
+    }
+}
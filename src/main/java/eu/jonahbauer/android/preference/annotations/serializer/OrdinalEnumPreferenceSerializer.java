@@ -0,0 +1,28 @@
+package eu.jonahbauer.android.preference.annotations.serializer;
+
+/**
+ * Stores enum constants by their {@linkplain Enum#ordinal() ordinal}. This is more compact than storing the name but
+ * requires that constants are only ever appended to the enum. {@code null} is stored as {@code -1}. Ordinals are
+ * resolved by indexing into the array of enum constants, and unknown ordinals are deserialized to {@code null}, in
+ * which case the generated code falls back to the default value.
+ * @see EnumPreferenceSerializer
+ */
+public final class OrdinalEnumPreferenceSerializer<T extends Enum<T>> implements IntPreferenceSerializer<T> {
+    private final T[] constants;
+
+    public OrdinalEnumPreferenceSerializer(Class<T> clazz) {
+        this.constants = clazz.getEnumConstants();
+    }
+
+    @Override
+    public int serializeInt(T value) {
+        if (value == null) return -1;
+        return value.ordinal();
+    }
+
+    @Override
+    public T deserializeInt(int value) {
+        if (value < 0 || value >= constants.length) return null;
+        return constants[value];
+    }
+}
@@ -0,0 +1,863 @@
+package eu.jonahbauer.android.preference.annotations.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link PreferenceStore} backed by a memory-mapped file, intended for running preference classes on a plain JVM.
+ * <p>
+ * The file consists of a header followed by slots of a fixed size. Every entry consists of its type, its key and its
+ * value and occupies one or more consecutive slots, so that primitive values are read directly from the mapped buffer.
+ * Entries are never modified in place. Instead, the changes of an editor are written to free slots as one batch, in
+ * which every entry is tagged with the sequence number of the batch, the number of entries in the batch and a checksum.
+ * Removals and {@linkplain Editor#clear() clearing} are recorded as entries as well. The slots of replaced entries
+ * are only reused once the replacing batch has been {@linkplain #force() forced}. The file grows by doubling the
+ * number of slots when there is no free space.
+ * <p>
+ * Changes are visible to all readers as soon as an {@linkplain Editor#apply() editor has been applied}. They are
+ * written to the file by the operating system and are guaranteed to be durable once they have been
+ * {@linkplain #force() forced}, which happens synchronously when {@linkplain Editor#commit() committing} and
+ * periodically in the background when a force interval is given. After a crash, the store contains all batches that
+ * have been forced and, of the batches applied afterwards, the longest sequence of batches that have been written
+ * completely, in the order in which they have been applied. Every batch is recovered either completely or not at
+ * all. The file must not be opened by more than one store at a time.
+ */
+public final class MappedPreferenceStore implements PreferenceStore, Closeable {
+    private static final int MAGIC = 0x50524546;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_HEADER_SIZE = 24;
+    private static final int INITIAL_SLOT_COUNT = 64;
+    private static final int MAX_KEY_SIZE = 0xFFFF;
+
+    /**
+     * The default size of a slot in bytes.
+     */
+    public static final int DEFAULT_SLOT_SIZE = 128;
+
+    /**
+     * The maximum size of an entry in bytes, including the UTF-8 encoded key and value and 24 bytes of overhead.
+     */
+    public static final int MAX_ENTRY_SIZE = 1 << 24;
+
+    private static final byte TYPE_EMPTY = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_STRING_SET = 2;
+    private static final byte TYPE_INT = 3;
+    private static final byte TYPE_LONG = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_REMOVED = 7;
+    private static final byte TYPE_CLEARED = 8;
+
+    private final FileChannel channel;
+    private final int slotSize;
+    private final ScheduledExecutorService forceExecutor;
+    private final Set<OnChangeListener> listeners = new CopyOnWriteArraySet<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // guarded by lock
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final BitSet free = new BitSet();
+    private MappedByteBuffer buffer;
+    private int slotCount;
+    private long sequence;
+    private boolean closed;
+
+    // entries recording removals and clearing, which must be kept as long as the entries they replace may be read
+    private final Map<String, Integer> removed = new HashMap<>();
+    private final List<Integer> cleared = new ArrayList<>();
+    // replaced entries, which are released once the replacing entries have been forced
+    private List<Integer> stale = new ArrayList<>();
+    private int staleSlots;
+
+    // serializes forcing
+    private final Object forceLock = new Object();
+    private volatile boolean dirty;
+
+    /**
+     * Opens the store backed by the given file with the {@linkplain #DEFAULT_SLOT_SIZE default slot size}. Changes
+     * are only forced when committing or when calling {@link #force()}.
+     * @see #MappedPreferenceStore(Path, int, long)
+     */
+    public MappedPreferenceStore(Path file) throws IOException {
+        this(file, DEFAULT_SLOT_SIZE, 0);
+    }
+
+    /**
+     * Opens the store backed by the given file, creating the file if it does not exist.
+     * @param file the backing file
+     * @param slotSize the size of a slot in bytes. Must match the slot size of an existing file. Entries larger than
+     *                 a slot occupy multiple slots, so the slot size should be chosen such that most entries fit into a
+     *                 single slot.
+     * @param forceInterval the interval in milliseconds in which applied changes are forced. If this is not positive,
+     *                      changes are only forced when committing, when calling {@link #force()} or when too many
+     *                      slots are occupied by replaced entries.
+     * @throws IOException if the file cannot be opened or is not a valid store
+     */
+    public MappedPreferenceStore(Path file, int slotSize, long forceInterval) throws IOException {
+        if (slotSize < ENTRY_HEADER_SIZE) {
+            throw new IllegalArgumentException("Slot size must be at least " + ENTRY_HEADER_SIZE + ".");
+        }
+
+        this.slotSize = slotSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        if (forceInterval > 0) {
+            forceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "MappedPreferenceStore-force");
+                thread.setDaemon(true);
+                return thread;
+            });
+            forceExecutor.scheduleWithFixedDelay(this::forceIfDirty, forceInterval, forceInterval, TimeUnit.MILLISECONDS);
+        } else {
+            forceExecutor = null;
+        }
+    }
+
+    private void load() throws IOException {
+        if (channel.size() == 0) {
+            map(INITIAL_SLOT_COUNT);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, slotSize);
+            buffer.putInt(12, slotCount);
+            buffer.putLong(16, 0);
+            return;
+        }
+
+        if (channel.size() < HEADER_SIZE) throw new IOException("Not a preference store.");
+        var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC) throw new IOException("Not a preference store.");
+        if (header.getInt(4) != VERSION) throw new IOException("Unsupported preference store version: " + header.getInt(4));
+        if (header.getInt(8) != slotSize) throw new IOException("Slot size mismatch: expected " + slotSize + " but was " + header.getInt(8));
+        // the slot count in the header may be outdated when the file has been grown before a crash
+        var count = (channel.size() - HEADER_SIZE) / slotSize;
+        if (count <= 0 || count < header.getInt(12)) throw new IOException("Preference store is truncated.");
+        if (count > (Integer.MAX_VALUE - HEADER_SIZE) / slotSize) throw new IOException("Preference store is too large.");
+        var forced = header.getLong(16);
+
+        map((int) count);
+
+        // collect all intact entries
+        var batches = new TreeMap<Long, List<Integer>>();
+        for (int i = 0; i < slotCount; ) {
+            var offset = offset(i);
+            if (buffer.get(offset) == TYPE_EMPTY || !isIntact(offset)) {
+                i++;
+                continue;
+            }
+            batches.computeIfAbsent(buffer.getLong(offset + 8), s -> new ArrayList<>()).add(i);
+            i += slotsOf(offset);
+        }
+
+        // batches that have not been forced are only recovered if they and all batches before are complete
+        var last = forced;
+        var discarded = new ArrayList<Integer>();
+        for (var entry : batches.entrySet()) {
+            var batch = entry.getKey();
+            var entries = entry.getValue();
+            var complete = batch <= last || batch == last + 1 && entries.size() == buffer.getInt(offset(entries.get(0)) + 16);
+            if (!complete || !discarded.isEmpty()) {
+                discarded.addAll(entries);
+                continue;
+            }
+
+            // clearing applies before all other changes of the batch
+            entries.sort(Comparator.comparing(slot -> buffer.get(offset(slot)) != TYPE_CLEARED));
+            for (var slot : entries) {
+                replay(slot);
+            }
+            last = Math.max(last, batch);
+        }
+        sequence = last;
+
+        if (!discarded.isEmpty() || !batches.isEmpty() && batches.lastKey() > last) {
+            // discard incomplete batches permanently before their sequence numbers are reused
+            for (var slot : discarded) release(slot);
+            buffer.force();
+            sequence = batches.lastKey();
+            buffer.putLong(16, sequence);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Replays an entry read from the file. Must only be called while loading.
+     */
+    private void replay(int slot) throws IOException {
+        var offset = offset(slot);
+        var type = buffer.get(offset);
+        free.clear(slot, slot + slotsOf(offset));
+
+        if (type == TYPE_CLEARED) {
+            replaceAll();
+            cleared.add(slot);
+            return;
+        }
+
+        var key = readKey(offset);
+        var previous = type == TYPE_REMOVED ? replace(key, slot, removed) : replace(key, slot, slots);
+        if (previous != null && buffer.getLong(offset(previous) + 8) == buffer.getLong(offset + 8)) {
+            throw new IOException("Duplicate key in preference store: " + key);
+        }
+    }
+
+    /**
+     * Maps the first {@code count} slots of the file, growing the file if necessary. Must only be called while
+     * holding the write lock.
+     */
+    private void map(int count) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) count * slotSize);
+        free.set(slotCount, count);
+        slotCount = count;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        lock.readLock().lock();
+        try {
+            var out = new HashMap<String, Object>();
+            slots.forEach((key, slot) -> out.put(key, readValue(offset(slot))));
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        lock.readLock().lock();
+        try {
+            var offset = find(key, TYPE_STRING);
+            return offset < 0 ? defValue : readString(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        lock.readLock().lock();
+        try {
+            var offset = find(key, TYPE_STRING_SET);
+            return offset < 0 ? defValues : readStringSet(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        lock.readLock().lock();
+        try {
+            var offset = find(key, TYPE_INT);
+            return offset < 0 ? defValue : buffer.getInt(valueOffset(offset));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        lock.readLock().lock();
+        try {
+            var offset = find(key, TYPE_LONG);
+            return offset < 0 ? defValue : buffer.getLong(valueOffset(offset));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        lock.readLock().lock();
+        try {
+            var offset = find(key, TYPE_FLOAT);
+            return offset < 0 ? defValue : buffer.getFloat(valueOffset(offset));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        lock.readLock().lock();
+        try {
+            var offset = find(key, TYPE_BOOLEAN);
+            return offset < 0 ? defValue : buffer.get(valueOffset(offset)) != 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        lock.readLock().lock();
+        try {
+            return slots.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the offset of the slot containing the given key or {@code -1} if there is no such slot.
+     * Must only be called while holding the read lock.
+     * @throws ClassCastException if the slot contains a value of another type
+     */
+    private int find(String key, byte type) {
+        var slot = slots.get(key);
+        if (slot == null) return -1;
+
+        var offset = offset(slot);
+        var actual = buffer.get(offset);
+        if (actual != type) {
+            throw new ClassCastException("Preference " + key + " has type " + typeName(actual) + " and not " + typeName(type) + ".");
+        }
+        return offset;
+    }
+
+    private String readKey(int offset) {
+        var length = Short.toUnsignedInt(buffer.getShort(offset + 2));
+        return readUtf8(offset + ENTRY_HEADER_SIZE, length);
+    }
+
+    private Object readValue(int offset) {
+        var value = valueOffset(offset);
+        switch (buffer.get(offset)) {
+            case TYPE_STRING: return readString(offset);
+            case TYPE_STRING_SET: return readStringSet(offset);
+            case TYPE_INT: return buffer.getInt(value);
+            case TYPE_LONG: return buffer.getLong(value);
+            case TYPE_FLOAT: return buffer.getFloat(value);
+            case TYPE_BOOLEAN: return buffer.get(value) != 0;
+            default: throw new IllegalStateException("Unknown type: " + buffer.get(offset));
+        }
+    }
+
+    private String readString(int offset) {
+        return readUtf8(valueOffset(offset), buffer.getInt(offset + 4));
+    }
+
+    private Set<String> readStringSet(int offset) {
+        var position = valueOffset(offset);
+        var count = buffer.getInt(position);
+        position += 4;
+
+        var out = new HashSet<String>(count * 2);
+        for (int i = 0; i < count; i++) {
+            var length = buffer.getInt(position);
+            out.add(readUtf8(position + 4, length));
+            position += 4 + length;
+        }
+        return Collections.unmodifiableSet(out);
+    }
+
+    private String readUtf8(int offset, int length) {
+        var bytes = new byte[length];
+        buffer.duplicate().position(offset).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public PreferenceStore.Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Writes the given changes as one batch and returns the keys of the entries that have actually changed.
+     */
+    private List<String> write(boolean clear, Map<String, Value> changes) {
+        var changed = new ArrayList<String>();
+
+        lock.writeLock().lock();
+        try {
+            if (closed) throw new IllegalStateException("Preference store has been closed.");
+
+            // determine the entries of the batch
+            var batch = new ArrayList<Value>();
+            if (clear && (!slots.isEmpty() || !removed.isEmpty())) batch.add(Value.CLEARED);
+            for (var entry : changes.entrySet()) {
+                var key = entry.getKey();
+                var value = entry.getValue();
+                var slot = clear ? null : slots.get(key);
+
+                if (value.type == TYPE_REMOVED && slot == null) continue;
+                if (slot != null && value.matches(offset(slot), buffer)) continue;
+                batch.add(value);
+                changed.add(key);
+            }
+            if (batch.isEmpty()) return changed;
+
+            // write the batch to free slots before replacing the current entries
+            var sequence = this.sequence + 1;
+            var written = new int[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                var value = batch.get(i);
+                written[i] = allocate(value.slots(slotSize));
+                value.write(offset(written[i]), buffer, sequence, batch.size());
+            }
+            this.sequence = sequence;
+
+            for (int i = 0; i < batch.size(); i++) {
+                var value = batch.get(i);
+                if (value == Value.CLEARED) {
+                    replaceAll();
+                    cleared.add(written[i]);
+                } else {
+                    replace(value.name, written[i], value.type == TYPE_REMOVED ? removed : slots);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (clear || !changed.isEmpty()) dirty = true;
+        return changed;
+    }
+
+    /**
+     * Replaces the current entry of the given key with the entry in the given slot. Must only be called while
+     * holding the write lock.
+     * @param entries the map the new entry is put into
+     * @return the slot of the replaced entry or {@code null}
+     */
+    private Integer replace(String key, int slot, Map<String, Integer> entries) {
+        var previous = slots.remove(key);
+        var marker = removed.remove(key);
+        if (previous != null) retire(previous);
+        if (marker != null) retire(marker);
+        entries.put(key, slot);
+        return previous != null ? previous : marker;
+    }
+
+    /**
+     * Replaces all current entries. Must only be called while holding the write lock.
+     */
+    private void replaceAll() {
+        slots.values().forEach(this::retire);
+        removed.values().forEach(this::retire);
+        cleared.forEach(this::retire);
+        slots.clear();
+        removed.clear();
+        cleared.clear();
+    }
+
+    /**
+     * Marks the entry in the given slot as replaced, so that it is released once the replacing entry has been forced.
+     * Must only be called while holding the write lock.
+     */
+    private void retire(int slot) {
+        stale.add(slot);
+        staleSlots += slotsOf(offset(slot));
+    }
+
+    /**
+     * Erases the entry in the given slot and marks its slots as free. Must only be called while holding the write
+     * lock.
+     */
+    private void release(int slot) {
+        var offset = offset(slot);
+        var count = slotsOf(offset);
+        buffer.put(offset, TYPE_EMPTY);
+        free.set(slot, slot + count);
+    }
+
+    /**
+     * Returns the index of the first of {@code count} consecutive free slots, growing the file if necessary. Must
+     * only be called while holding the write lock.
+     */
+    private int allocate(int count) throws IOException {
+        while (true) {
+            for (int slot = free.nextSetBit(0); slot >= 0 && slot < slotCount; slot = free.nextSetBit(slot)) {
+                var end = Math.min(free.nextClearBit(slot), slotCount);
+                if (end - slot >= count) {
+                    free.clear(slot, slot + count);
+                    return slot;
+                }
+                slot = end;
+            }
+
+            var size = Math.max((long) slotCount * 2, (long) slotCount + count);
+            if (HEADER_SIZE + size * slotSize > Integer.MAX_VALUE) throw new IOException("Preference store is full.");
+            map((int) size);
+            buffer.putInt(12, slotCount);
+        }
+    }
+
+    private void notifyListeners(boolean clear, List<String> keys) {
+        if (listeners.isEmpty()) return;
+        for (var listener : listeners) {
+            if (clear) listener.onChanged(this, null);
+            for (var key : keys) listener.onChanged(this, key);
+        }
+    }
+
+    /**
+     * Forces all changes that have been applied so far to be written to the backing file. Afterwards, the slots of
+     * entries replaced by these changes are released.
+     * @throws UncheckedIOException if the changes cannot be written
+     */
+    public void force() {
+        synchronized (forceLock) {
+            MappedByteBuffer buffer;
+            long sequence;
+            List<Integer> releasing;
+            List<Integer> markers;
+
+            dirty = false;
+            lock.writeLock().lock();
+            try {
+                if (closed) return;
+                buffer = this.buffer;
+                sequence = this.sequence;
+                releasing = stale;
+                stale = new ArrayList<>();
+                staleSlots = 0;
+                // the entries replaced by these markers are released now and erased durably by the next force
+                markers = new ArrayList<>(removed.values());
+                markers.addAll(cleared);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            try {
+                buffer.force();
+
+                // the header must be durable before any slot is reused
+                lock.writeLock().lock();
+                try {
+                    this.buffer.putLong(16, sequence);
+                    buffer = this.buffer;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                buffer.force();
+            } catch (UncheckedIOException e) {
+                lock.writeLock().lock();
+                try {
+                    releasing.forEach(this::retire);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                dirty = true;
+                throw e;
+            }
+
+            lock.writeLock().lock();
+            try {
+                releasing.forEach(this::release);
+                for (var marker : markers) {
+                    var offset = offset(marker);
+                    if (buffer.get(offset) == TYPE_CLEARED ? cleared.remove(marker) : removed.remove(readKey(offset), marker)) {
+                        retire(marker);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Forces the applied changes if more than half of the slots are occupied by replaced entries, since these slots
+     * can only be reused afterwards.
+     */
+    private void forceIfWasteful() {
+        boolean wasteful;
+        lock.readLock().lock();
+        try {
+            wasteful = staleSlots > slotCount / 2;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (wasteful) forceIfDirty();
+    }
+
+    private void forceIfDirty() {
+        if (!dirty) return;
+        try {
+            force();
+        } catch (UncheckedIOException e) {
+            // retried on next schedule
+        }
+    }
+
+    /**
+     * Forces all applied changes and closes the backing file. The store must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (forceExecutor != null) forceExecutor.shutdown();
+
+        synchronized (forceLock) {
+            UncheckedIOException failure = null;
+            try {
+                force();
+            } catch (UncheckedIOException e) {
+                failure = e;
+            }
+
+            lock.writeLock().lock();
+            try {
+                if (closed) return;
+                closed = true;
+                channel.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (failure != null) throw failure.getCause();
+        }
+    }
+
+    @Override
+    public void registerOnChangeListener(OnChangeListener listener) {
+        listeners.add(Objects.requireNonNull(listener, "Listener must not be null."));
+    }
+
+    @Override
+    public void unregisterOnChangeListener(OnChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private int offset(int slot) {
+        return HEADER_SIZE + slot * slotSize;
+    }
+
+    private int valueOffset(int offset) {
+        return offset + ENTRY_HEADER_SIZE + Short.toUnsignedInt(buffer.getShort(offset + 2));
+    }
+
+    /**
+     * Returns the number of slots occupied by the entry at the given offset.
+     */
+    private int slotsOf(int offset) {
+        return Value.slots(ENTRY_HEADER_SIZE + Short.toUnsignedInt(buffer.getShort(offset + 2)) + buffer.getInt(offset + 4), slotSize);
+    }
+
+    /**
+     * Checks whether the entry at the given offset lies within the file and matches its checksum.
+     */
+    private boolean isIntact(int offset) {
+        var keyLength = Short.toUnsignedInt(buffer.getShort(offset + 2));
+        var valueLength = buffer.getInt(offset + 4);
+        if (valueLength < 0 || valueLength > MAX_ENTRY_SIZE) return false;
+        if ((long) offset + ENTRY_HEADER_SIZE + keyLength + valueLength > buffer.capacity()) return false;
+
+        var crc = new CRC32();
+        crc.update(buffer.duplicate().position(offset).limit(offset + 20));
+        crc.update(buffer.duplicate().position(offset + ENTRY_HEADER_SIZE).limit(offset + ENTRY_HEADER_SIZE + keyLength + valueLength));
+        return (int) crc.getValue() == buffer.getInt(offset + 20);
+    }
+
+    private static String typeName(byte type) {
+        switch (type) {
+            case TYPE_STRING: return "String";
+            case TYPE_STRING_SET: return "Set<String>";
+            case TYPE_INT: return "int";
+            case TYPE_LONG: return "long";
+            case TYPE_FLOAT: return "float";
+            case TYPE_BOOLEAN: return "boolean";
+            default: return "unknown";
+        }
+    }
+
+    /**
+     * An encoded entry. An entry is laid out as follows: the type (1 byte), padding (1 byte), the length of the key
+     * (2 bytes), the length of the value (4 bytes), the sequence number of its batch (8 bytes), the number of entries
+     * in its batch (4 bytes), a CRC32 checksum (4 bytes) of all other bytes of the entry, the UTF-8 encoded key and
+     * the encoded value.
+     */
+    private static final class Value {
+        private static final Value CLEARED = new Value(TYPE_CLEARED, "", new byte[0]);
+
+        private final byte type;
+        private final String name;
+        private final byte[] key;
+        private final byte[] value;
+
+        private Value(byte type, String key, byte[] value) {
+            this.type = type;
+            this.name = key;
+            this.key = key.getBytes(StandardCharsets.UTF_8);
+            this.value = value;
+
+            if (this.key.length > MAX_KEY_SIZE) {
+                throw new IllegalArgumentException("Key of preference " + key + " exceeds the maximum key size of " + MAX_KEY_SIZE + " bytes.");
+            }
+            if (size() > MAX_ENTRY_SIZE) {
+                throw new IllegalArgumentException("Preference " + key + " occupies " + size() + " bytes and exceeds the maximum entry size of " + MAX_ENTRY_SIZE + " bytes.");
+            }
+        }
+
+        private long size() {
+            return (long) ENTRY_HEADER_SIZE + key.length + value.length;
+        }
+
+        private int slots(int slotSize) {
+            return slots((int) size(), slotSize);
+        }
+
+        private static int slots(int size, int slotSize) {
+            return (size + slotSize - 1) / slotSize;
+        }
+
+        private boolean matches(int offset, MappedByteBuffer buffer) {
+            if (buffer.get(offset) != type || buffer.getInt(offset + 4) != value.length) return false;
+
+            var position = offset + ENTRY_HEADER_SIZE + Short.toUnsignedInt(buffer.getShort(offset + 2));
+            for (int i = 0; i < value.length; i++) {
+                if (buffer.get(position + i) != value[i]) return false;
+            }
+            return true;
+        }
+
+        private void write(int offset, MappedByteBuffer buffer, long sequence, int batchSize) {
+            var header = ByteBuffer.allocate(20)
+                    .put(type)
+                    .put((byte) 0)
+                    .putShort((short) key.length)
+                    .putInt(value.length)
+                    .putLong(sequence)
+                    .putInt(batchSize);
+
+            var crc = new CRC32();
+            crc.update(header.array());
+            crc.update(key);
+            crc.update(value);
+
+            buffer.duplicate().position(offset)
+                    .put(header.array())
+                    .putInt((int) crc.getValue())
+                    .put(key)
+                    .put(value);
+        }
+    }
+
+    private final class Editor implements PreferenceStore.Editor {
+        private final Map<String, Value> changes = new LinkedHashMap<>();
+        private boolean clear;
+
+        @Override
+        public PreferenceStore.Editor putString(String key, String value) {
+            if (value == null) return remove(key);
+            return put(key, TYPE_STRING, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public PreferenceStore.Editor putStringSet(String key, Set<String> values) {
+            if (values == null) return remove(key);
+
+            var strings = new ArrayList<byte[]>(values.size());
+            var length = 4;
+            for (String value : values) {
+                var bytes = value.getBytes(StandardCharsets.UTF_8);
+                strings.add(bytes);
+                length += 4 + bytes.length;
+            }
+
+            var out = ByteBuffer.allocate(length).putInt(strings.size());
+            for (byte[] bytes : strings) {
+                out.putInt(bytes.length).put(bytes);
+            }
+            return put(key, TYPE_STRING_SET, out.array());
+        }
+
+        @Override
+        public PreferenceStore.Editor putInt(String key, int value) {
+            return put(key, TYPE_INT, ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
+        }
+
+        @Override
+        public PreferenceStore.Editor putLong(String key, long value) {
+            return put(key, TYPE_LONG, ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+        }
+
+        @Override
+        public PreferenceStore.Editor putFloat(String key, float value) {
+            return put(key, TYPE_FLOAT, ByteBuffer.allocate(Float.BYTES).putFloat(value).array());
+        }
+
+        @Override
+        public PreferenceStore.Editor putBoolean(String key, boolean value) {
+            return put(key, TYPE_BOOLEAN, new byte[] {(byte) (value ? 1 : 0)});
+        }
+
+        private PreferenceStore.Editor put(String key, byte type, byte[] value) {
+            Objects.requireNonNull(key, "Key must not be null.");
+            changes.put(key, new Value(type, key, value));
+            return this;
+        }
+
+        @Override
+        public PreferenceStore.Editor remove(String key) {
+            Objects.requireNonNull(key, "Key must not be null.");
+            changes.put(key, new Value(TYPE_REMOVED, key, new byte[0]));
+            return this;
+        }
+
+        @Override
+        public PreferenceStore.Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            var clear = this.clear;
+            var keys = write(clear, take());
+            try {
+                force();
+                return true;
+            } catch (UncheckedIOException e) {
+                dirty = true;
+                return false;
+            } finally {
+                notifyListeners(clear, keys);
+            }
+        }
+
+        @Override
+        public void apply() {
+            var clear = this.clear;
+            var keys = write(clear, take());
+            forceIfWasteful();
+            notifyListeners(clear, keys);
+        }
+
+        /**
+         * Returns a copy of the changes and resets this editor, so that it can be reused for further changes just
+         * like a {@code SharedPreferences.Editor}.
+         */
+        private Map<String, Value> take() {
+            var result = new LinkedHashMap<>(changes);
+            changes.clear();
+            clear = false;
+            return result;
+        }
+    }
+}
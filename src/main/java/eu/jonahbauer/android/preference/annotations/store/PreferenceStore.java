@@ -0,0 +1,100 @@
+package eu.jonahbauer.android.preference.annotations.store;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A key-value store for preferences. Preference classes generated with
+ * {@link eu.jonahbauer.android.preference.annotations.Preferences#store() store = true} access their preferences
+ * exclusively through this interface, so that storage engines other than {@code SharedPreferences} can be used.
+ * <p>
+ * The methods of this interface follow the contract of the corresponding methods of {@code SharedPreferences}.
+ * In particular, values returned by the store must not be modified and listeners must be notified after changes
+ * have been {@linkplain Editor#apply() applied}.
+ */
+public interface PreferenceStore {
+
+    /**
+     * Returns all values in this store. The returned map must not be modified.
+     */
+    Map<String, ?> getAll();
+
+    String getString(String key, String defValue);
+
+    Set<String> getStringSet(String key, Set<String> defValues);
+
+    int getInt(String key, int defValue);
+
+    long getLong(String key, long defValue);
+
+    float getFloat(String key, float defValue);
+
+    boolean getBoolean(String key, boolean defValue);
+
+    boolean contains(String key);
+
+    /**
+     * Creates a new editor through which changes can be made to this store. All changes made in an editor are
+     * batched and written atomically when the editor is {@linkplain Editor#commit() committed} or
+     * {@linkplain Editor#apply() applied}.
+     */
+    Editor edit();
+
+    /**
+     * Registers a listener to be notified when a value changes. Unlike {@code SharedPreferences}, stores must keep a
+     * strong reference to the listener until it is {@linkplain #unregisterOnChangeListener(OnChangeListener)
+     * unregistered}.
+     */
+    void registerOnChangeListener(OnChangeListener listener);
+
+    void unregisterOnChangeListener(OnChangeListener listener);
+
+    /**
+     * A batch of changes to a {@link PreferenceStore}.
+     */
+    interface Editor {
+        Editor putString(String key, String value);
+
+        Editor putStringSet(String key, Set<String> values);
+
+        Editor putInt(String key, int value);
+
+        Editor putLong(String key, long value);
+
+        Editor putFloat(String key, float value);
+
+        Editor putBoolean(String key, boolean value);
+
+        Editor remove(String key);
+
+        /**
+         * Removes all values. Removal takes place before any other changes of this editor regardless of the order in
+         * which the methods have been called.
+         */
+        Editor clear();
+
+        /**
+         * Writes the changes synchronously.
+         * @return {@code true} if the changes have been written successfully
+         */
+        boolean commit();
+
+        /**
+         * Writes the changes. The changes must be visible to subsequent reads immediately, but may be persisted
+         * asynchronously.
+         */
+        void apply();
+    }
+
+    /**
+     * A listener that is notified when a value of a {@link PreferenceStore} changes.
+     */
+    @FunctionalInterface
+    interface OnChangeListener {
+        /**
+         * @param store the store whose value has changed
+         * @param key the key of the changed value or {@code null} if the store has been cleared
+         */
+        void onChanged(PreferenceStore store, String key);
+    }
+}
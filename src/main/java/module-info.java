@@ -1,9 +1,12 @@
 module eu.jonahbauer.android.preference.annotation {
     exports eu.jonahbauer.android.preference.annotations;
     exports eu.jonahbauer.android.preference.annotations.serializer;
+    exports eu.jonahbauer.android.preference.annotations.flow;
+    exports eu.jonahbauer.android.preference.annotations.store;
 
     requires com.squareup.javapoet;
     requires java.compiler;
+    requires java.xml;
     requires static lombok;
 
     provides javax.annotation.processing.Processor with eu.jonahbauer.android.preference.annotations.processor.PreferenceProcessor;
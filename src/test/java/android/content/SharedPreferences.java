@@ -21,6 +21,10 @@ import java.util.Set;
 
 @SuppressWarnings("all")
 public interface SharedPreferences {
+    interface OnSharedPreferenceChangeListener {
+        void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key);
+    }
+
     interface Editor {
         Editor putString(String key, String value);
         
@@ -60,4 +64,8 @@ public interface SharedPreferences {
     boolean contains(String key);
     
     Editor edit();
+
+    void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener);
+
+    void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener);
 }
@@ -6,6 +6,10 @@ import com.google.testing.compile.Compilation;
 import com.google.testing.compile.Compiler;
 import com.google.testing.compile.JavaFileObjects;
 import eu.jonahbauer.android.preference.annotations.processor.PreferenceProcessor;
+import eu.jonahbauer.android.preference.annotations.processor.StringResources;
+import eu.jonahbauer.android.preference.annotations.serializer.EnumPreferenceSerializer;
+import eu.jonahbauer.android.preference.annotations.serializer.PreferenceSerializationException;
+import eu.jonahbauer.android.preference.annotations.store.PreferenceStore;
 import eu.jonahbauer.android.preference.annotations.util.CompilationClassLoader;
 import eu.jonahbauer.android.preference.annotations.util.InMemoryResources;
 import eu.jonahbauer.android.preference.annotations.util.InMemorySharedPreferences;
@@ -14,12 +18,20 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 import static com.google.testing.compile.CompilationSubject.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
@@ -40,6 +52,8 @@ public class PreferenceAnnotationProcessorTest {
     public static final String PREFERENCES_GENERAL_OBJECT = "preferences.general.object";
     public static final String PREFERENCES_GENERAL_LIST = "preferences.general.list";
     public static final String PREFERENCES_GENERAL_SET = "preferences.general.set";
+    public static final String PREFERENCES_GENERAL_OTHER_BOOLEAN = "preferences.general.other_boolean";
+    public static final String PREFERENCES_GENERAL_PACKED_BOOLEANS = "preferences.general.packed_booleans";
 
     private SharedPreferences sharedPreferences;
     private Resources resources;
@@ -63,6 +77,8 @@ public class PreferenceAnnotationProcessorTest {
                 .put(R.string.preferences_general_object_pref_key, PREFERENCES_GENERAL_OBJECT)
                 .put(R.string.preferences_general_list_pref_key, PREFERENCES_GENERAL_LIST)
                 .put(R.string.preferences_general_set_pref_key, PREFERENCES_GENERAL_SET)
+                .put(R.string.preferences_general_other_boolean_pref_key, PREFERENCES_GENERAL_OTHER_BOOLEAN)
+                .put(R.string.preferences_general_packed_booleans_0_key, PREFERENCES_GENERAL_PACKED_BOOLEANS)
                 .build();
 
     }
@@ -152,6 +168,43 @@ public class PreferenceAnnotationProcessorTest {
         check(clazz, Map.of("general", List.of(
                 new Preference<>("enumPref", StandardOpenOption.class, null, StandardOpenOption.APPEND, PREFERENCES_GENERAL_ENUM)
         )));
+
+        // unknown names fall back to the default value in the generated code...
+        sharedPreferences.edit().putString(PREFERENCES_GENERAL_ENUM, "UNKNOWN").commit();
+        var group = clazz.getMethod("general").invoke(null);
+        assertNull(group.getClass().getMethod("enumPref").invoke(group));
+
+        // ...but still cause an exception when using the serializer directly
+        var serializer = new EnumPreferenceSerializer<>(StandardOpenOption.class);
+        assertEquals(StandardOpenOption.WRITE, serializer.deserialize("WRITE"));
+        assertThrows(PreferenceSerializationException.class, () -> serializer.deserialize("UNKNOWN"));
+        assertNull(serializer.deserializeOrNull("UNKNOWN"));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithEnumOrdinal() throws Exception {
+        var compilation = compile("input/TestPreferencesEnumOrdinal.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        check(clazz, Map.of("general", List.of(
+                new Preference<>("enumPref", StandardOpenOption.class, StandardOpenOption.CREATE, StandardOpenOption.APPEND, PREFERENCES_GENERAL_ENUM),
+                new Preference<>("intPref", StandardOpenOption.class, null, StandardOpenOption.WRITE, PREFERENCES_GENERAL_INT)
+        )));
+
+        var group = clazz.getMethod("general").invoke(null);
+        group.getClass().getMethod("intPref", StandardOpenOption.class).invoke(group, StandardOpenOption.APPEND);
+        assertEquals(StandardOpenOption.APPEND.ordinal(), sharedPreferences.getInt(PREFERENCES_GENERAL_INT, -1));
+
+        // unknown values fall back to the default value
+        sharedPreferences.edit()
+                .putString(PREFERENCES_GENERAL_ENUM, "RENAMED")
+                .putInt(PREFERENCES_GENERAL_INT, 1000)
+                .apply();
+        assertEquals(StandardOpenOption.CREATE, group.getClass().getMethod("enumPref").invoke(group));
+        assertNull(group.getClass().getMethod("intPref").invoke(group));
     }
 
     @Test
@@ -213,6 +266,1184 @@ public class PreferenceAnnotationProcessorTest {
         )));
     }
 
+    @Test
+    public void testSuccessfulCompilationWithPrimitiveSerializer() throws Exception {
+        var compilation = compile("input/TestPreferencesPrimitiveSerializer.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        // the specialized methods are called directly
+        assertThat(compilation)
+                .generatedSourceFile("eu.jonahbauer.android.preference.annotations.generated.TestPreferences")
+                .contentsAsUtf8String()
+                .doesNotContainMatch("\\.(de)?serialize\\(");
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        check(clazz, Map.of("general", List.of(
+                new Preference<>("intPref", DayOfWeek.class, DayOfWeek.MONDAY, DayOfWeek.FRIDAY, PREFERENCES_GENERAL_INT),
+                new Preference<>("longPref", Duration.class, Duration.ZERO, Duration.ofMinutes(5), PREFERENCES_GENERAL_LONG),
+                new Preference<>("floatPref", double.class, 0d, 50d, PREFERENCES_GENERAL_FLOAT),
+                new Preference<>("booleanPref", String.class, "no", "yes", PREFERENCES_GENERAL_BOOLEAN)
+        )));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithCache() throws Exception {
+        var compilation = compile("input/TestPreferencesCache.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        check(clazz, Map.of("general", List.of(
+                new Preference<>("intPref", int.class, 0, 16, PREFERENCES_GENERAL_INT),
+                new Preference<>("stringPref", String.class, null, "Hello World!", PREFERENCES_GENERAL_STRING),
+                new Preference<>("listPref", List.class, null, List.of(1, 2, 3), PREFERENCES_GENERAL_LIST)
+        )));
+
+        // changes made directly to the shared preferences must invalidate the cache
+        var group = clazz.getMethod("general").invoke(null);
+        var getter = group.getClass().getMethod("intPref");
+        assertEquals(0, getter.invoke(group));
+        sharedPreferences.edit().putInt(PREFERENCES_GENERAL_INT, 42).apply();
+        assertEquals(42, getter.invoke(group));
+    }
+
+    @Test
+    public void testEditorInvalidatesCacheWithDeferredListeners() throws Exception {
+        var compilation = compile("input/TestPreferencesEditorCache.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        var callbacks = new ArrayList<Runnable>();
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, deferredListeners(callbacks), resources);
+
+        var general = clazz.getMethod("general").invoke(null);
+        var getter = general.getClass().getMethod("intPref");
+        assertEquals(0, getter.invoke(general));
+
+        // the group editor invalidates the cache before the listener is notified
+        var editor = general.getClass().getMethod("edit").invoke(general);
+        editor.getClass().getMethod("intPref", int.class).invoke(editor, 5);
+        editor.getClass().getMethod("apply").invoke(editor);
+        assertEquals(5, getter.invoke(general));
+
+        editor = general.getClass().getMethod("edit").invoke(general);
+        editor.getClass().getMethod("intPref", int.class).invoke(editor, 6);
+        assertEquals(true, editor.getClass().getMethod("commit").invoke(editor));
+        assertEquals(6, getter.invoke(general));
+
+        // so does the root editor
+        var other = clazz.getMethod("other").invoke(null);
+        assertEquals(false, other.getClass().getMethod("booleanPref").invoke(other));
+        var rootEditor = clazz.getMethod("edit").invoke(null);
+        var generalEditor = rootEditor.getClass().getMethod("general").invoke(rootEditor);
+        generalEditor.getClass().getMethod("intPref", int.class).invoke(generalEditor, 7);
+        var otherEditor = rootEditor.getClass().getMethod("other").invoke(rootEditor);
+        otherEditor.getClass().getMethod("booleanPref", boolean.class).invoke(otherEditor, true);
+        rootEditor.getClass().getMethod("apply").invoke(rootEditor);
+        assertEquals(7, getter.invoke(general));
+        assertEquals(true, other.getClass().getMethod("booleanPref").invoke(other));
+
+        assertFalse(callbacks.isEmpty());
+        callbacks.forEach(Runnable::run);
+        assertEquals(7, getter.invoke(general));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithCoalescedWrites() throws Exception {
+        var compilation = compile("input/TestPreferencesCoalesceWrites.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        check(clazz, Map.of("general", List.of(
+                new Preference<>("booleanPref", boolean.class, false, true, PREFERENCES_GENERAL_BOOLEAN),
+                new Preference<>("intPref", int.class, 0, 16, PREFERENCES_GENERAL_INT),
+                new Preference<>("stringPref", String.class, null, "Hello World!", PREFERENCES_GENERAL_STRING)
+        )));
+
+        // writes are staged until flushed
+        var group = clazz.getMethod("general").invoke(null);
+        group.getClass().getMethod("intPref", int.class).invoke(group, 42);
+        group.getClass().getMethod("stringPref", String.class).invoke(group, "Hello World!");
+        assertFalse(sharedPreferences.contains(PREFERENCES_GENERAL_INT));
+        assertFalse(sharedPreferences.contains(PREFERENCES_GENERAL_STRING));
+
+        clazz.getMethod("flush").invoke(null);
+        assertEquals(42, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+        assertEquals("Hello World!", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithWritePolicy() throws Exception {
+        var compilation = compile("input/TestPreferencesWritePolicy.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        var changes = Collections.synchronizedList(new ArrayList<String>());
+        SharedPreferences.OnSharedPreferenceChangeListener listener = (preferences, key) -> changes.add(key);
+        sharedPreferences.registerOnSharedPreferenceChangeListener(listener);
+
+        // pending values are visible immediately but not written
+        var group = clazz.getMethod("general").invoke(null);
+        group.getClass().getMethod("stringPref", String.class).invoke(group, "Hello World!");
+        group.getClass().getMethod("setPref", Set.class).invoke(group, Set.of("a", "b", "c"));
+        var other = clazz.getMethod("other").invoke(null);
+        other.getClass().getMethod("otherBooleanPref", boolean.class).invoke(other, true);
+        assertEquals("Hello World!", group.getClass().getMethod("stringPref").invoke(group));
+        assertEquals(Set.of("a", "b", "c"), group.getClass().getMethod("setPref").invoke(group));
+        assertEquals(true, other.getClass().getMethod("otherBooleanPref").invoke(other));
+        assertEquals(Map.of(), sharedPreferences.getAll());
+
+        // immediate preferences are not affected
+        group.getClass().getMethod("longPref", long.class).invoke(group, 42L);
+        assertEquals(42L, sharedPreferences.getLong(PREFERENCES_GENERAL_LONG, 0));
+
+        clazz.getMethod("flushPending").invoke(null);
+        assertEquals("Hello World!", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+        assertEquals(Set.of("a", "b", "c"), sharedPreferences.getStringSet(PREFERENCES_GENERAL_SET, null));
+        assertEquals(1L, sharedPreferences.getLong(PREFERENCES_GENERAL_PACKED_BOOLEANS, 0));
+
+        // debounced preferences are written once per window
+        changes.clear();
+        for (int i = 1; i <= 10; i++) {
+            group.getClass().getMethod("intPref", int.class).invoke(group, i);
+        }
+        assertEquals(10, group.getClass().getMethod("intPref").invoke(group));
+        for (int i = 0; i < 100 && !sharedPreferences.contains(PREFERENCES_GENERAL_INT); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+        assertEquals(List.of(PREFERENCES_GENERAL_INT), changes);
+
+        // pending values are written before applying an editor
+        group.getClass().getMethod("stringPref", String.class).invoke(group, "Foo");
+        var editor = group.getClass().getMethod("edit").invoke(group);
+        editor.getClass().getMethod("stringPref", String.class).invoke(editor, "Bar");
+        editor.getClass().getMethod("apply").invoke(editor);
+        assertEquals("Bar", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+        assertEquals("Bar", group.getClass().getMethod("stringPref").invoke(group));
+
+        // pending values are discarded by clear
+        group.getClass().getMethod("stringPref", String.class).invoke(group, "Baz");
+        clazz.getMethod("clear").invoke(null);
+        assertNull(group.getClass().getMethod("stringPref").invoke(group));
+        clazz.getMethod("flushPending").invoke(null);
+        assertEquals(Map.of(), sharedPreferences.getAll());
+    }
+
+    @Test
+    public void testConcurrentFlushes() throws Exception {
+        var compilation = compile("input/TestPreferencesWritePolicy.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        // widen the window between reading the pending value and writing it
+        var delegate = sharedPreferences;
+        var slowPreferences = (SharedPreferences) Proxy.newProxyInstance(
+                SharedPreferences.class.getClassLoader(),
+                new Class<?>[] {SharedPreferences.class},
+                (proxy, method, args) -> {
+                    if ("edit".equals(method.getName())) Thread.sleep(1);
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+        );
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, slowPreferences, resources);
+
+        // concurrent flushes write the pending values in order
+        var written = Collections.synchronizedList(new ArrayList<Integer>());
+        SharedPreferences.OnSharedPreferenceChangeListener recorder = (preferences, key) -> {
+            if (PREFERENCES_GENERAL_STRING.equals(key)) written.add(Integer.valueOf(preferences.getString(key, null)));
+        };
+        sharedPreferences.registerOnSharedPreferenceChangeListener(recorder);
+
+        var group = clazz.getMethod("general").invoke(null);
+        var setter = group.getClass().getMethod("stringPref", String.class);
+        var flushPending = clazz.getMethod("flushPending");
+        var done = new AtomicBoolean();
+        var failure = new AtomicReference<Throwable>();
+        var threads = new ArrayList<Thread>();
+        threads.add(new Thread(() -> {
+            try {
+                for (int i = 1; i <= 1_000; i++) {
+                    setter.invoke(group, String.valueOf(i));
+                    Thread.yield();
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            } finally {
+                done.set(true);
+            }
+        }));
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (!done.get()) flushPending.invoke(null);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) thread.join();
+        assertNull(failure.get());
+
+        flushPending.invoke(null);
+        assertEquals("1000", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+        var sorted = new ArrayList<>(written);
+        Collections.sort(sorted);
+        assertEquals(sorted, written);
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithCounter() throws Exception {
+        var compilation = compile("input/TestPreferencesCounter.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        var group = clazz.getMethod("general").invoke(null);
+        var incrementLong = group.getClass().getMethod("incrementLongPref", long.class);
+
+        // concurrent increments are neither lost nor written
+        var threads = new ArrayList<Thread>();
+        var failure = new AtomicReference<Throwable>();
+        for (int i = 0; i < 8; i++) {
+            var thread = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 10_000; j++) incrementLong.invoke(group, 1L);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertNull(failure.get());
+        assertEquals(80_000L, group.getClass().getMethod("longPref").invoke(group));
+        assertEquals(Map.of(), sharedPreferences.getAll());
+
+        clazz.getMethod("flushPending").invoke(null);
+        assertEquals(80_000L, sharedPreferences.getLong(PREFERENCES_GENERAL_LONG, 0));
+        assertEquals(80_005L, group.getClass().getMethod("addAndGetLongPref", long.class).invoke(group, 5L));
+
+        // increments are added to changes made by other means
+        sharedPreferences.edit().putLong(PREFERENCES_GENERAL_LONG, 1000L).apply();
+        assertEquals(1005L, group.getClass().getMethod("longPref").invoke(group));
+        clazz.getMethod("flushPending").invoke(null);
+        assertEquals(1005L, sharedPreferences.getLong(PREFERENCES_GENERAL_LONG, 0));
+
+        // debounced counters are written once per window
+        assertEquals(13, group.getClass().getMethod("addAndGetIntPref", int.class).invoke(group, 3));
+        for (int i = 0; i < 100 && !sharedPreferences.contains(PREFERENCES_GENERAL_INT); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(13, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+
+        // the setter replaces collected increments
+        group.getClass().getMethod("incrementIntPref", int.class).invoke(group, 7);
+        group.getClass().getMethod("intPref", int.class).invoke(group, 1);
+        assertEquals(2, group.getClass().getMethod("addAndGetIntPref", int.class).invoke(group, 1));
+
+        // collected increments are written before applying an editor and discarded by clear
+        var editor = group.getClass().getMethod("edit").invoke(group);
+        editor.getClass().getMethod("intPref", int.class).invoke(editor, 50);
+        editor.getClass().getMethod("apply").invoke(editor);
+        assertEquals(50, group.getClass().getMethod("intPref").invoke(group));
+        assertEquals(50, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+
+        group.getClass().getMethod("incrementIntPref", int.class).invoke(group, 1);
+        clazz.getMethod("clear").invoke(null);
+        assertEquals(10, group.getClass().getMethod("intPref").invoke(group));
+        clazz.getMethod("flushPending").invoke(null);
+        assertEquals(Map.of(), sharedPreferences.getAll());
+    }
+
+    @Test
+    public void testUnsuccessfulCompilationWithInvalidCounter() {
+        var compilation = compile("input/TestPreferencesInvalidCounter.java");
+        assertThat(compilation).hadErrorContaining("Counter preferences must be of type int or long: string_pref");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSuccessfulCompilationWithUpdate() throws Exception {
+        var compilation = compile("input/TestPreferencesUpdate.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        var group = clazz.getMethod("general").invoke(null);
+        var updateList = group.getClass().getMethod("updateListPref", UnaryOperator.class);
+
+        // concurrent updates are not lost
+        var threads = new ArrayList<Thread>();
+        var failure = new AtomicReference<Throwable>();
+        for (int i = 0; i < 8; i++) {
+            var offset = i * 1000;
+            var thread = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 100; j++) {
+                        var element = offset + j;
+                        updateList.invoke(group, (UnaryOperator<List<Integer>>) list -> {
+                            list.add(element);
+                            return list;
+                        });
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertNull(failure.get());
+        var list = (List<Integer>) group.getClass().getMethod("listPref").invoke(group);
+        assertEquals(800, list.size());
+        assertEquals(800, new HashSet<>(list).size());
+
+        // the function is applied again when the value has been changed concurrently
+        var calls = new AtomicInteger();
+        group.getClass().getMethod("updateIntPref", UnaryOperator.class).invoke(group, (UnaryOperator<Integer>) value -> {
+            if (calls.getAndIncrement() == 0) sharedPreferences.edit().putInt(PREFERENCES_GENERAL_INT, 10).apply();
+            return value + 1;
+        });
+        assertEquals(2, calls.get());
+        assertEquals(11, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+        assertEquals(11, group.getClass().getMethod("intPref").invoke(group));
+
+        group.getClass().getMethod("updateFloatPref", UnaryOperator.class).invoke(group, (UnaryOperator<Float>) value -> value + 0.5f);
+        assertEquals(0.5f, sharedPreferences.getFloat(PREFERENCES_GENERAL_FLOAT, 0));
+
+        // pending values are updated without being written
+        group.getClass().getMethod("stringPref", String.class).invoke(group, "Hello");
+        group.getClass().getMethod("updateStringPref", UnaryOperator.class).invoke(group, (UnaryOperator<String>) value -> value + " World!");
+        assertEquals("Hello World!", group.getClass().getMethod("stringPref").invoke(group));
+        assertFalse(sharedPreferences.contains(PREFERENCES_GENERAL_STRING));
+        clazz.getMethod("flushPending").invoke(null);
+        assertEquals("Hello World!", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+
+        // counters do not have an update method
+        assertThrows(NoSuchMethodException.class, () -> group.getClass().getMethod("updateLongPref", UnaryOperator.class));
+
+        // packed booleans and memory-only preferences
+        var other = clazz.getMethod("other").invoke(null);
+        other.getClass().getMethod("updateOtherBooleanPref", UnaryOperator.class).invoke(other, (UnaryOperator<Boolean>) value -> !value);
+        assertEquals(true, other.getClass().getMethod("otherBooleanPref").invoke(other));
+        other.getClass().getMethod("updateBooleanPref", UnaryOperator.class).invoke(other, (UnaryOperator<Boolean>) value -> !value);
+        assertEquals(true, other.getClass().getMethod("booleanPref").invoke(other));
+        assertFalse(sharedPreferences.contains(PREFERENCES_GENERAL_BOOLEAN));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithMemoryOnly() throws Exception {
+        var compilation = compile("input/TestPreferencesMemoryOnly.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        var listenerClass = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences$general$Listener");
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        var events = new ArrayList<String>();
+        var listener = Proxy.newProxyInstance(classLoader, new Class<?>[] {listenerClass}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy == args[0];
+                case "toString": return "Listener";
+                default:
+                    events.add(method.getName() + "=" + args[0]);
+                    return null;
+            }
+        });
+
+        var group = clazz.getMethod("general").invoke(null);
+        group.getClass().getMethod("registerListener", listenerClass).invoke(group, listener);
+        var other = clazz.getMethod("other").invoke(null);
+
+        // memory-only preferences start with their default value and are never written
+        assertEquals(16, group.getClass().getMethod("intPref").invoke(group));
+        assertEquals(StandardOpenOption.READ, group.getClass().getMethod("enumPref").invoke(group));
+        assertEquals(true, other.getClass().getMethod("otherBooleanPref").invoke(other));
+
+        group.getClass().getMethod("intPref", int.class).invoke(group, 42);
+        group.getClass().getMethod("enumPref", StandardOpenOption.class).invoke(group, StandardOpenOption.WRITE);
+        group.getClass().getMethod("stringPref", String.class).invoke(group, "Hello World!");
+        other.getClass().getMethod("otherBooleanPref", boolean.class).invoke(other, false);
+        assertEquals(42, group.getClass().getMethod("intPref").invoke(group));
+        assertEquals(StandardOpenOption.WRITE, group.getClass().getMethod("enumPref").invoke(group));
+        assertEquals(false, other.getClass().getMethod("otherBooleanPref").invoke(other));
+        assertEquals(Map.of(PREFERENCES_GENERAL_STRING, "Hello World!"), sharedPreferences.getAll());
+        assertEquals(List.of("onIntPrefChanged=42", "onEnumPrefChanged=WRITE", "onStringPrefChanged=Hello World!"), events);
+
+        // keys are still available
+        var keys = group.getClass().getMethod("keys").invoke(group);
+        assertEquals(PREFERENCES_GENERAL_INT, keys.getClass().getMethod("intPref").invoke(keys));
+
+        // editors and snapshots include memory-only preferences
+        events.clear();
+        var editor = clazz.getMethod("edit").invoke(null);
+        var generalEditor = editor.getClass().getMethod("general").invoke(editor);
+        generalEditor.getClass().getMethod("intPref", int.class).invoke(generalEditor, 1337);
+        assertEquals(42, group.getClass().getMethod("intPref").invoke(group));
+        assertEquals(true, editor.getClass().getMethod("commit").invoke(editor));
+        assertEquals(1337, group.getClass().getMethod("intPref").invoke(group));
+        assertEquals(List.of("onIntPrefChanged=1337"), events);
+
+        var snapshot = group.getClass().getMethod("snapshot").invoke(group);
+        assertEquals(1337, snapshot.getClass().getMethod("intPref").invoke(snapshot));
+        assertEquals(StandardOpenOption.WRITE, snapshot.getClass().getMethod("enumPref").invoke(snapshot));
+
+        // memory-only preferences are not affected by clear
+        events.clear();
+        clazz.getMethod("clear").invoke(null);
+        assertEquals(1337, group.getClass().getMethod("intPref").invoke(group));
+        assertEquals(List.of("onStringPrefChanged=null"), events);
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithSkipUnchangedWrites() throws Exception {
+        var compilation = compile("input/TestPreferencesSkipUnchangedWrites.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        check(clazz, Map.of("general", List.of(
+                new Preference<>("booleanPref", boolean.class, false, true, PREFERENCES_GENERAL_BOOLEAN),
+                new Preference<>("charPref", char.class, (char) 0, (char) 16, PREFERENCES_GENERAL_CHAR),
+                new Preference<>("intPref", int.class, 0, 16, PREFERENCES_GENERAL_INT),
+                new Preference<>("floatPref", float.class, (float) 0, (float) 16, PREFERENCES_GENERAL_FLOAT),
+                new Preference<>("doublePref", double.class, (double) 0, (double) 16, PREFERENCES_GENERAL_DOUBLE),
+                new Preference<>("stringPref", String.class, null, "Hello World!", PREFERENCES_GENERAL_STRING),
+                new Preference<>("setPref", Set.class, null, Set.of("a", "b", "c"), PREFERENCES_GENERAL_SET)
+        )));
+
+        var changes = new ArrayList<String>();
+        SharedPreferences.OnSharedPreferenceChangeListener listener = (preferences, key) -> changes.add(key);
+        sharedPreferences.registerOnSharedPreferenceChangeListener(listener);
+
+        // only the first write is not skipped
+        var group = clazz.getMethod("general").invoke(null);
+        var setter = group.getClass().getMethod("intPref", int.class);
+        setter.invoke(group, 42);
+        setter.invoke(group, 42);
+        assertEquals(List.of(PREFERENCES_GENERAL_INT), changes);
+
+        // modifications by the same editor are never skipped
+        var editor = group.getClass().getMethod("edit").invoke(group);
+        var editorSetter = editor.getClass().getMethod("intPref", int.class);
+        editorSetter.invoke(editor, 16);
+        editorSetter.invoke(editor, 42);
+        editor.getClass().getMethod("apply").invoke(editor);
+        assertEquals(42, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithLazyKeys() throws Exception {
+        var compilation = compile("input/TestPreferencesLazyKeys.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        // count resource lookups
+        var lookups = new AtomicInteger();
+        var delegate = resources;
+        resources = id -> {
+            lookups.incrementAndGet();
+            return delegate.getString(id);
+        };
+
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+        assertEquals(0, lookups.get());
+
+        var group = clazz.getMethod("general").invoke(null);
+        var keys = group.getClass().getMethod("keys").invoke(group);
+        assertEquals(PREFERENCES_GENERAL_INT, keys.getClass().getMethod("intPref").invoke(keys));
+        assertEquals(PREFERENCES_GENERAL_INT, keys.getClass().getMethod("intPref").invoke(keys));
+        assertEquals(1, lookups.get());
+
+        group.getClass().getMethod("stringPref", String.class).invoke(group, "Hello World!");
+        assertEquals("Hello World!", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+        assertEquals("Hello World!", group.getClass().getMethod("stringPref").invoke(group));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithInlinedKeys() throws Exception {
+        var compilation = compile("input/TestPreferences.java", "-A" + StringResources.OPTION + "=" + resource("res/values/strings.xml"));
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        // keys must not be loaded from the resources
+        resources = InMemoryResources.builder().build();
+
+        check(clazz, Map.of("general", List.of(
+                new Preference<>("booleanPref", boolean.class, false, true, PREFERENCES_GENERAL_BOOLEAN),
+                new Preference<>("intPref", int.class, 0, 16, PREFERENCES_GENERAL_INT),
+                new Preference<>("stringPref", String.class, null, "Hello World!", PREFERENCES_GENERAL_STRING),
+                new Preference<>("voidPref", void.class, null, null, PREFERENCES_GENERAL_VOID),
+                new Preference<>("setPref", Set.class, null, Set.of("a", "b", "c"), PREFERENCES_GENERAL_SET)
+        )));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithPackedBooleansAndInlinedKeys() throws Exception {
+        var compilation = compile("input/TestPreferencesPackedBooleans.java", "-A" + StringResources.OPTION + "=" + resource("res/values/strings.xml"));
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        // the key of the backing preference is inlined as well
+        resources = InMemoryResources.builder().build();
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        var group = clazz.getMethod("general").invoke(null);
+        group.getClass().getMethod("otherBooleanPref", boolean.class).invoke(group, true);
+        assertEquals(0b11L, sharedPreferences.getLong(PREFERENCES_GENERAL_PACKED_BOOLEANS, 0));
+
+        var keys = group.getClass().getMethod("keys").invoke(group);
+        assertEquals(PREFERENCES_GENERAL_PACKED_BOOLEANS, keys.getClass().getMethod("otherBooleanPref").invoke(keys));
+        assertEquals(PREFERENCES_GENERAL_INT, keys.getClass().getMethod("intPref").invoke(keys));
+    }
+
+    @Test
+    public void testMissingInlinedKey() throws Exception {
+        var compilation = compile("input/TestPreferences.java", "-A" + StringResources.OPTION + "=" + resource("res/values/strings_incomplete.xml"));
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Missing string resource: preferences_general_byte_pref_key");
+    }
+
+    @Test
+    public void testInvalidEscapeInInlinedKey() throws Exception {
+        var compilation = compile("input/TestPreferences.java", "-A" + StringResources.OPTION + "=" + resource("res/values/strings_invalid_escape.xml"));
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Invalid string resource preferences_general_boolean_pref_key: Invalid unicode escape sequence \\uZZZZ");
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithLazyGroups() throws Exception {
+        var compilation = compile("input/TestPreferencesLazyGroups.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        check(clazz, Map.of("general", List.of(
+                new Preference<>("intPref", int.class, 0, 16, PREFERENCES_GENERAL_INT),
+                new Preference<>("stringPref", String.class, null, "Hello World!", PREFERENCES_GENERAL_STRING)
+        )));
+
+        // groups are only instantiated once
+        assertSame(clazz.getMethod("general").invoke(null), clazz.getMethod("general").invoke(null));
+        assertSame(clazz.getMethod("unused").invoke(null), clazz.getMethod("unused").invoke(null));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithSnapshot() throws Exception {
+        var compilation = compile("input/TestPreferencesSnapshot.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        // absent preferences fall back to their default value
+        var snapshot = clazz.getMethod("snapshot").invoke(null);
+        var general = snapshot.getClass().getMethod("general").invoke(snapshot);
+        assertEquals(false, general.getClass().getMethod("booleanPref").invoke(general));
+        assertEquals((byte) 5, general.getClass().getMethod("bytePref").invoke(general));
+        assertEquals("default", general.getClass().getMethod("stringPref").invoke(general));
+        assertNull(general.getClass().getMethod("setPref").invoke(general));
+        assertNull(general.getClass().getMethod("bigIntPref").invoke(general));
+        assertThrows(NoSuchMethodException.class, () -> general.getClass().getMethod("voidPref"));
+
+        sharedPreferences.edit()
+                .putBoolean(PREFERENCES_GENERAL_BOOLEAN, true)
+                .putInt(PREFERENCES_GENERAL_BYTE, 42)
+                .putInt(PREFERENCES_GENERAL_CHAR, 'x')
+                .putInt(PREFERENCES_GENERAL_SHORT, 1234)
+                .putInt(PREFERENCES_GENERAL_INT, 16)
+                .putLong(PREFERENCES_GENERAL_LONG, 1L << 40)
+                .putFloat(PREFERENCES_GENERAL_FLOAT, 1.5f)
+                .putLong(PREFERENCES_GENERAL_DOUBLE, Double.doubleToRawLongBits(2.5))
+                .putString(PREFERENCES_GENERAL_STRING, "Hello World!")
+                .putStringSet(PREFERENCES_GENERAL_SET, Set.of("a", "b"))
+                .putString(PREFERENCES_GENERAL_BIG_INT, "ff")
+                .apply();
+
+        snapshot = clazz.getMethod("snapshot").invoke(null);
+        var general2 = snapshot.getClass().getMethod("general").invoke(snapshot);
+        var other = snapshot.getClass().getMethod("other").invoke(snapshot);
+        assertEquals(true, general2.getClass().getMethod("booleanPref").invoke(general2));
+        assertEquals((byte) 42, general2.getClass().getMethod("bytePref").invoke(general2));
+        assertEquals('x', general2.getClass().getMethod("charPref").invoke(general2));
+        assertEquals(16, general2.getClass().getMethod("intPref").invoke(general2));
+        assertEquals(1L << 40, general2.getClass().getMethod("longPref").invoke(general2));
+        assertEquals(1.5f, general2.getClass().getMethod("floatPref").invoke(general2));
+        assertEquals(2.5, general2.getClass().getMethod("doublePref").invoke(general2));
+        assertEquals("Hello World!", general2.getClass().getMethod("stringPref").invoke(general2));
+        assertEquals(Set.of("a", "b"), general2.getClass().getMethod("setPref").invoke(general2));
+        assertEquals(BigInteger.valueOf(255), general2.getClass().getMethod("bigIntPref").invoke(general2));
+        assertEquals((short) 1234, other.getClass().getMethod("shortPref").invoke(other));
+
+        // snapshots are not affected by subsequent changes
+        var group = clazz.getMethod("general").invoke(null);
+        group.getClass().getMethod("intPref", int.class).invoke(group, 42);
+        assertEquals(16, general2.getClass().getMethod("intPref").invoke(general2));
+
+        var groupSnapshot = group.getClass().getMethod("snapshot").invoke(group);
+        assertEquals(42, groupSnapshot.getClass().getMethod("intPref").invoke(groupSnapshot));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithListeners() throws Exception {
+        var compilation = compile("input/TestPreferencesListeners.java");
+        assertThat(compilation).succeededWithoutWarnings();
+        checkListeners(compilation);
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithListenersAndInlinedKeys() throws Exception {
+        var compilation = compile("input/TestPreferencesListeners.java", "-A" + StringResources.OPTION + "=" + resource("res/values/strings.xml"));
+        assertThat(compilation).succeededWithoutWarnings();
+        checkListeners(compilation);
+    }
+
+    private void checkListeners(Compilation compilation) throws Exception {
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        var listenerClass = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences$general$Listener");
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        var events = new ArrayList<String>();
+        var listener = Proxy.newProxyInstance(classLoader, new Class<?>[] {listenerClass}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy == args[0];
+                case "toString": return "Listener";
+                default:
+                    events.add(method.getName() + "=" + args[0]);
+                    return null;
+            }
+        });
+
+        var group = clazz.getMethod("general").invoke(null);
+        group.getClass().getMethod("registerListener", listenerClass).invoke(group, listener);
+
+        group.getClass().getMethod("intPref", int.class).invoke(group, 42);
+        group.getClass().getMethod("stringPref", String.class).invoke(group, "Hello World!");
+        sharedPreferences.edit().putInt("unrelated", 1).apply();
+        assertEquals(List.of("onIntPrefChanged=42", "onStringPrefChanged=Hello World!"), events);
+
+        // changes of other groups are not dispatched to this group
+        var other = clazz.getMethod("other").invoke(null);
+        other.getClass().getMethod("booleanPref", boolean.class).invoke(other, true);
+        assertEquals(2, events.size());
+
+        // clearing notifies about every preference
+        events.clear();
+        clazz.getMethod("clear").invoke(null);
+        assertEquals(List.of("onIntPrefChanged=0", "onStringPrefChanged=null"), events);
+
+        events.clear();
+        group.getClass().getMethod("unregisterListener", listenerClass).invoke(group, listener);
+        group.getClass().getMethod("intPref", int.class).invoke(group, 16);
+        assertEquals(List.of(), events);
+
+        // listeners can subscribe to a single preference
+        group.getClass().getMethod("registerIntPrefListener", listenerClass).invoke(group, listener);
+        group.getClass().getMethod("stringPref", String.class).invoke(group, "Foo");
+        group.getClass().getMethod("intPref", int.class).invoke(group, 17);
+        clazz.getMethod("clear").invoke(null);
+        assertEquals(List.of("onIntPrefChanged=17", "onIntPrefChanged=0"), events);
+
+        events.clear();
+        group.getClass().getMethod("unregisterListener", listenerClass).invoke(group, listener);
+        group.getClass().getMethod("intPref", int.class).invoke(group, 18);
+        assertEquals(List.of(), events);
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithLazySerializers() throws Exception {
+        var compilation = compile("input/TestPreferencesLazySerializers.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        var source = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.sources.TestPreferencesLazySerializers");
+        var instances = source.getField("instances");
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        // the serializer is not instantiated together with the group
+        var group = clazz.getMethod("general").invoke(null);
+        assertEquals(0, instances.get(null));
+
+        // the serializer is instantiated exactly once on first use
+        assertNull(group.getClass().getMethod("bigIntPref").invoke(group));
+        assertEquals(1, instances.get(null));
+        group.getClass().getMethod("bigIntPref", BigInteger.class).invoke(group, BigInteger.valueOf(255));
+        assertEquals(BigInteger.valueOf(255), group.getClass().getMethod("bigIntPref").invoke(group));
+        assertEquals("ff", sharedPreferences.getString(PREFERENCES_GENERAL_BIG_INT, null));
+        assertEquals(1, instances.get(null));
+
+        // unknown values still fall back to the default value
+        sharedPreferences.edit().putString(PREFERENCES_GENERAL_ENUM, "UNKNOWN").apply();
+        assertEquals(DayOfWeek.MONDAY, group.getClass().getMethod("enumPref").invoke(group));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithSharedSerializers() throws Exception {
+        var compilation = compile("input/TestPreferencesSharedSerializers.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        // a single holder for all shared preferences of both groups
+        assertThat(compilation)
+                .generatedSourceFile("eu.jonahbauer.android.preference.annotations.generated.TestPreferences")
+                .contentsAsUtf8String()
+                .doesNotContainMatch("SerializerHolder\\$1");
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        var source = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.sources.TestPreferencesSharedSerializers");
+        var instances = source.getField("instances");
+
+        check(clazz, Map.of(
+                "general", List.of(
+                        new Preference<>("bigIntPref", BigInteger.class, null, BigInteger.ONE, PREFERENCES_GENERAL_BIG_INT),
+                        new Preference<>("objectPref", BigInteger.class, null, BigInteger.TWO, PREFERENCES_GENERAL_OBJECT),
+                        new Preference<>("listPref", BigInteger.class, null, BigInteger.TEN, PREFERENCES_GENERAL_LIST)
+                ),
+                "other", List.of(
+                        new Preference<>("stringPref", BigInteger.class, null, BigInteger.ONE, PREFERENCES_GENERAL_STRING)
+                )
+        ));
+
+        // one shared instance and one instance for the unshared preference
+        assertEquals(2, instances.get(null));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithDeserializedDefault() throws Exception {
+        var compilation = compile("input/TestPreferencesDeserializedDefault.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        var source = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.sources.TestPreferencesDeserializedDefault");
+        var deserializations = source.getField("deserializations");
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        // the default value is deserialized once on first use
+        var group = clazz.getMethod("general").invoke(null);
+        var getter = group.getClass().getMethod("bigIntPref");
+        assertEquals(0, deserializations.get(null));
+        assertEquals(BigInteger.valueOf(255), getter.invoke(group));
+        assertSame(getter.invoke(group), getter.invoke(group));
+        var snapshot = group.getClass().getMethod("snapshot").invoke(group);
+        assertEquals(BigInteger.valueOf(255), snapshot.getClass().getMethod("bigIntPref").invoke(snapshot));
+        assertEquals(1, deserializations.get(null));
+
+        // present values are deserialized on every read
+        sharedPreferences.edit().putString(PREFERENCES_GENERAL_BIG_INT, "10").apply();
+        assertEquals(BigInteger.valueOf(16), getter.invoke(group));
+        assertEquals(BigInteger.valueOf(16), getter.invoke(group));
+        assertEquals(3, deserializations.get(null));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithRootEditor() throws Exception {
+        var compilation = compile("input/TestPreferencesRootEditor.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        var events = new ArrayList<String>();
+        SharedPreferences.OnSharedPreferenceChangeListener listener = (preferences, key) -> events.add(key);
+        sharedPreferences.registerOnSharedPreferenceChangeListener(listener);
+
+        var editor = clazz.getMethod("edit").invoke(null);
+        var general = editor.getClass().getMethod("general").invoke(editor);
+        general.getClass().getMethod("intPref", int.class).invoke(general, 42);
+        general.getClass().getMethod("stringPref", String.class).invoke(general, "Hello World!");
+        var other = editor.getClass().getMethod("other").invoke(editor);
+        other.getClass().getMethod("booleanPref", boolean.class).invoke(other, true);
+        assertSame(general, editor.getClass().getMethod("general").invoke(editor));
+
+        // nothing is written until the root editor is applied
+        assertEquals(List.of(), events);
+        assertFalse(sharedPreferences.contains(PREFERENCES_GENERAL_INT));
+
+        editor.getClass().getMethod("apply").invoke(editor);
+        assertEquals(Set.of(PREFERENCES_GENERAL_INT, PREFERENCES_GENERAL_STRING, PREFERENCES_GENERAL_PACKED_BOOLEANS), Set.copyOf(events));
+        assertEquals(42, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+        assertEquals("Hello World!", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+        var group = clazz.getMethod("other").invoke(null);
+        assertEquals(true, group.getClass().getMethod("booleanPref").invoke(group));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithStore() throws Exception {
+        var compilation = compile("input/TestPreferencesStore.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        assertThrows(NoSuchMethodException.class, () -> clazz.getMethod("getSharedPreferences"));
+
+        // the SharedPreferences are wrapped in a PreferenceStore
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+        var store = (PreferenceStore) clazz.getMethod("getPreferenceStore").invoke(null);
+
+        var group = clazz.getMethod("general").invoke(null);
+        group.getClass().getMethod("intPref", int.class).invoke(group, 42);
+        assertEquals(42, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+        assertEquals(42, store.getInt(PREFERENCES_GENERAL_INT, 0));
+
+        // changes made to the backing SharedPreferences invalidate the cache
+        sharedPreferences.edit().putInt(PREFERENCES_GENERAL_INT, 1337).apply();
+        assertEquals(1337, group.getClass().getMethod("intPref").invoke(group));
+
+        var events = new ArrayList<String>();
+        PreferenceStore.OnChangeListener listener = (s, key) -> events.add(key);
+        store.registerOnChangeListener(listener);
+        store.edit().putString(PREFERENCES_GENERAL_STRING, "Hello World!").apply();
+        store.unregisterOnChangeListener(listener);
+        store.edit().remove(PREFERENCES_GENERAL_STRING).apply();
+        assertEquals(List.of(PREFERENCES_GENERAL_STRING), events);
+
+        // any PreferenceStore can be used
+        var otherClassLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var otherClazz = otherClassLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        otherClazz.getMethod("init", PreferenceStore.class, Resources.class).invoke(null, store, resources);
+        assertSame(store, otherClazz.getMethod("getPreferenceStore").invoke(null));
+        var otherGroup = otherClazz.getMethod("general").invoke(null);
+        assertEquals(1337, otherGroup.getClass().getMethod("intPref").invoke(otherGroup));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithPackedBooleans() throws Exception {
+        var compilation = compile("input/TestPreferencesPackedBooleans.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        check(clazz, Map.of("general", List.of(
+                new Preference<>("booleanPref", boolean.class, true, false, PREFERENCES_GENERAL_PACKED_BOOLEANS),
+                new Preference<>("otherBooleanPref", boolean.class, false, true, PREFERENCES_GENERAL_PACKED_BOOLEANS),
+                new Preference<>("intPref", int.class, 0, 42, PREFERENCES_GENERAL_INT)
+        )));
+
+        // both booleans are stored in a single long
+        var group = clazz.getMethod("general").invoke(null);
+        group.getClass().getMethod("booleanPref", boolean.class).invoke(group, false);
+        group.getClass().getMethod("otherBooleanPref", boolean.class).invoke(group, true);
+        assertEquals(0b10L, sharedPreferences.getLong(PREFERENCES_GENERAL_PACKED_BOOLEANS, 0));
+        assertFalse(sharedPreferences.contains(PREFERENCES_GENERAL_BOOLEAN));
+        assertFalse(sharedPreferences.contains(PREFERENCES_GENERAL_OTHER_BOOLEAN));
+
+        // the editor only modifies the bits that have been set
+        var editor = group.getClass().getMethod("edit").invoke(group);
+        editor.getClass().getMethod("booleanPref", boolean.class).invoke(editor, true);
+        group.getClass().getMethod("otherBooleanPref", boolean.class).invoke(group, false);
+        editor.getClass().getMethod("apply").invoke(editor);
+        assertEquals(true, group.getClass().getMethod("booleanPref").invoke(group));
+        assertEquals(false, group.getClass().getMethod("otherBooleanPref").invoke(group));
+
+        var snapshot = group.getClass().getMethod("snapshot").invoke(group);
+        assertEquals(true, snapshot.getClass().getMethod("booleanPref").invoke(snapshot));
+        assertEquals(false, snapshot.getClass().getMethod("otherBooleanPref").invoke(snapshot));
+    }
+
+    @Test
+    public void testUnsuccessfulCompilationWithPackedBooleansAndCoalesceWrites() {
+        var compilation = compile("input/TestPreferencesPackedBooleansCoalesceWrites.java");
+        assertThat(compilation).hadErrorContaining("Packed booleans are not supported together with write coalescing: general");
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithSlots() throws Exception {
+        var compilation = compile("input/TestPreferencesSlots.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        // values present before initialization are loaded into the slots
+        sharedPreferences.edit().putLong(PREFERENCES_GENERAL_LONG, 1337).apply();
+
+        check(clazz, Map.of(
+                "general", List.of(
+                        new Preference<>("booleanPref", boolean.class, false, true, PREFERENCES_GENERAL_BOOLEAN),
+                        new Preference<>("bytePref", byte.class, (byte) 0, (byte) 16, PREFERENCES_GENERAL_BYTE),
+                        new Preference<>("shortPref", short.class, (short) 0, (short) 16, PREFERENCES_GENERAL_SHORT),
+                        new Preference<>("charPref", char.class, (char) 0, (char) 16, PREFERENCES_GENERAL_CHAR),
+                        new Preference<>("intPref", int.class, 0, 16, PREFERENCES_GENERAL_INT),
+                        new Preference<>("longPref", long.class, (long) 1337, (long) 16, PREFERENCES_GENERAL_LONG),
+                        new Preference<>("floatPref", float.class, (float) 0, (float) 16, PREFERENCES_GENERAL_FLOAT),
+                        new Preference<>("doublePref", double.class, (double) 0, (double) 16, PREFERENCES_GENERAL_DOUBLE),
+                        new Preference<>("stringPref", String.class, null, "Hello World!", PREFERENCES_GENERAL_STRING),
+                        new Preference<>("voidPref", void.class, null, null, PREFERENCES_GENERAL_VOID),
+                        new Preference<>("setPref", Set.class, null, Set.of("a", "b", "c"), PREFERENCES_GENERAL_SET)
+                ),
+                "other", List.of(
+                        new Preference<>("otherBooleanPref", boolean.class, false, true, PREFERENCES_GENERAL_PACKED_BOOLEANS)
+                )
+        ));
+
+        // the slots are reset by clear and reloaded on external changes
+        var group = clazz.getMethod("general").invoke(null);
+        assertEquals(0L, group.getClass().getMethod("longPref").invoke(group));
+        sharedPreferences.edit().putInt(PREFERENCES_GENERAL_INT, 42).putString(PREFERENCES_GENERAL_STRING, "Foo").apply();
+        assertEquals(42, group.getClass().getMethod("intPref").invoke(group));
+        assertEquals("Foo", group.getClass().getMethod("stringPref").invoke(group));
+
+        // setters only update the slots, which are written in batches
+        var flushPending = clazz.getMethod("flushPending");
+        synchronized (group) {
+            // the dirty slots cannot be collected while the groups lock is held
+            group.getClass().getMethod("intPref", int.class).invoke(group, 1);
+            group.getClass().getMethod("stringPref", String.class).invoke(group, "Bar");
+            assertEquals(1, group.getClass().getMethod("intPref").invoke(group));
+            assertEquals("Bar", group.getClass().getMethod("stringPref").invoke(group));
+            assertEquals(42, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+            assertEquals("Foo", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+
+            // dirty slots are not overwritten by external changes
+            sharedPreferences.edit().putInt(PREFERENCES_GENERAL_INT, 43).apply();
+            assertEquals(1, group.getClass().getMethod("intPref").invoke(group));
+        }
+        flushPending.invoke(null);
+        assertEquals(1, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+        assertEquals("Bar", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+
+        var other = clazz.getMethod("other").invoke(null);
+        other.getClass().getMethod("otherBooleanPref", boolean.class).invoke(other, true);
+        flushPending.invoke(null);
+        assertEquals(1L, sharedPreferences.getLong(PREFERENCES_GENERAL_PACKED_BOOLEANS, 0));
+        sharedPreferences.edit().putLong(PREFERENCES_GENERAL_PACKED_BOOLEANS, 0).apply();
+        assertEquals(false, other.getClass().getMethod("otherBooleanPref").invoke(other));
+    }
+
+    @Test
+    public void testEditorReloadsSlotsWithDeferredListeners() throws Exception {
+        var compilation = compile("input/TestPreferencesEditorSlots.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        var callbacks = new ArrayList<Runnable>();
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, deferredListeners(callbacks), resources);
+
+        // the group editor reloads the slots before the listener is notified
+        var general = clazz.getMethod("general").invoke(null);
+        var getter = general.getClass().getMethod("intPref");
+        var editor = general.getClass().getMethod("edit").invoke(general);
+        editor.getClass().getMethod("intPref", int.class).invoke(editor, 5);
+        editor.getClass().getMethod("stringPref", String.class).invoke(editor, "Foo");
+        editor.getClass().getMethod("apply").invoke(editor);
+        assertEquals(5, getter.invoke(general));
+        assertEquals("Foo", general.getClass().getMethod("stringPref").invoke(general));
+
+        // so does the root editor
+        var other = clazz.getMethod("other").invoke(null);
+        var rootEditor = clazz.getMethod("edit").invoke(null);
+        var generalEditor = rootEditor.getClass().getMethod("general").invoke(rootEditor);
+        generalEditor.getClass().getMethod("intPref", int.class).invoke(generalEditor, 7);
+        var otherEditor = rootEditor.getClass().getMethod("other").invoke(rootEditor);
+        otherEditor.getClass().getMethod("booleanPref", boolean.class).invoke(otherEditor, true);
+        assertEquals(true, rootEditor.getClass().getMethod("commit").invoke(rootEditor));
+        assertEquals(7, getter.invoke(general));
+        assertEquals(true, other.getClass().getMethod("booleanPref").invoke(other));
+
+        assertFalse(callbacks.isEmpty());
+        callbacks.forEach(Runnable::run);
+        assertEquals(7, getter.invoke(general));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithSlotsAndCoalesceWrites() throws Exception {
+        var compilation = compile("input/TestPreferencesSlotsCoalesceWrites.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        check(clazz, Map.of(
+                "general", List.of(
+                        new Preference<>("booleanPref", boolean.class, false, true, PREFERENCES_GENERAL_BOOLEAN),
+                        new Preference<>("intPref", int.class, 0, 16, PREFERENCES_GENERAL_INT),
+                        new Preference<>("longPref", long.class, (long) 0, (long) 16, PREFERENCES_GENERAL_LONG),
+                        new Preference<>("stringPref", String.class, null, "Hello World!", PREFERENCES_GENERAL_STRING),
+                        new Preference<>("setPref", Set.class, null, Set.of("a", "b", "c"), PREFERENCES_GENERAL_SET)
+                )
+        ));
+
+        // dirty slots are staged in the pending editor
+        var group = clazz.getMethod("general").invoke(null);
+        group.getClass().getMethod("intPref", int.class).invoke(group, 7);
+        group.getClass().getMethod("stringPref", String.class).invoke(group, "Bar");
+        clazz.getMethod("flushPending").invoke(null);
+        assertEquals(7, sharedPreferences.getInt(PREFERENCES_GENERAL_INT, 0));
+        assertEquals("Bar", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+
+        sharedPreferences.edit().putString(PREFERENCES_GENERAL_STRING, "Foo").apply();
+        assertEquals("Foo", group.getClass().getMethod("stringPref").invoke(group));
+    }
+
+    @Test
+    public void testSuccessfulCompilationWithFiles() throws Exception {
+        var compilation = compile("input/TestPreferencesFiles.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+
+        SharedPreferences otherPreferences = new InMemorySharedPreferences();
+        Function<String, SharedPreferences> files = file -> {
+            assertEquals("other", file);
+            return otherPreferences;
+        };
+        clazz.getMethod("init", SharedPreferences.class, Function.class, Resources.class).invoke(null, sharedPreferences, files, resources);
+
+        // changes are only reported to the groups backed by the changed file, even if another file uses the same key
+        var listenerClass = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences$general$Listener");
+        var events = new ArrayList<String>();
+        var listener = Proxy.newProxyInstance(classLoader, new Class<?>[] {listenerClass}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy == args[0];
+                case "toString": return "Listener";
+                default:
+                    events.add(method.getName() + "=" + args[0]);
+                    return null;
+            }
+        });
+        var general = clazz.getMethod("general").invoke(null);
+        general.getClass().getMethod("registerListener", listenerClass).invoke(general, listener);
+        otherPreferences.edit().putInt(PREFERENCES_GENERAL_INT, 1).apply();
+        otherPreferences.edit().remove(PREFERENCES_GENERAL_INT).apply();
+        assertEquals(List.of(), events);
+        sharedPreferences.edit().putInt(PREFERENCES_GENERAL_INT, 2).apply();
+        assertEquals(1, events.size());
+        general.getClass().getMethod("unregisterListener", listenerClass).invoke(general, listener);
+
+        // values are written to the file of their group
+        general.getClass().getMethod("intPref", int.class).invoke(general, 42);
+        var other = clazz.getMethod("other").invoke(null);
+        other.getClass().getMethod("otherBooleanPref", boolean.class).invoke(other, true);
+        assertEquals(Map.of(PREFERENCES_GENERAL_INT, 42), sharedPreferences.getAll());
+        assertEquals(Map.of(PREFERENCES_GENERAL_OTHER_BOOLEAN, true), otherPreferences.getAll());
+
+        // the cache is invalidated by changes to either file
+        sharedPreferences.edit().putString(PREFERENCES_GENERAL_STRING, "Foo").apply();
+        assertEquals("Foo", general.getClass().getMethod("stringPref").invoke(general));
+        otherPreferences.edit().putBoolean(PREFERENCES_GENERAL_OTHER_BOOLEAN, false).apply();
+        assertEquals(false, other.getClass().getMethod("otherBooleanPref").invoke(other));
+
+        // the root editor and snapshot span all files
+        var editor = clazz.getMethod("edit").invoke(null);
+        var generalEditor = editor.getClass().getMethod("general").invoke(editor);
+        generalEditor.getClass().getMethod("stringPref", String.class).invoke(generalEditor, "Hello World!");
+        var otherEditor = editor.getClass().getMethod("other").invoke(editor);
+        otherEditor.getClass().getMethod("otherBooleanPref", boolean.class).invoke(otherEditor, true);
+        assertEquals(true, editor.getClass().getMethod("commit").invoke(editor));
+        assertEquals("Hello World!", sharedPreferences.getString(PREFERENCES_GENERAL_STRING, null));
+        assertTrue(otherPreferences.getBoolean(PREFERENCES_GENERAL_OTHER_BOOLEAN, false));
+
+        var snapshot = clazz.getMethod("snapshot").invoke(null);
+        var generalSnapshot = snapshot.getClass().getMethod("general").invoke(snapshot);
+        assertEquals(42, generalSnapshot.getClass().getMethod("intPref").invoke(generalSnapshot));
+        var otherSnapshot = snapshot.getClass().getMethod("other").invoke(snapshot);
+        assertEquals(true, otherSnapshot.getClass().getMethod("otherBooleanPref").invoke(otherSnapshot));
+
+        // clear removes the values from all files
+        clazz.getMethod("clear").invoke(null);
+        assertEquals(Map.of(), sharedPreferences.getAll());
+        assertEquals(Map.of(), otherPreferences.getAll());
+        assertEquals(false, other.getClass().getMethod("otherBooleanPref").invoke(other));
+    }
+
+    @Test
+    public void testUnsuccessfulCompilationWithFilesAndCoalesceWrites() {
+        var compilation = compile("input/TestPreferencesFilesCoalesceWrites.java");
+        assertThat(compilation).hadErrorContaining("Preference files are not supported together with write coalescing.");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSuccessfulCompilationWithPublishers() throws Exception {
+        var compilation = compile("input/TestPreferencesPublishers.java");
+        assertThat(compilation).succeededWithoutWarnings();
+
+        var classLoader = new CompilationClassLoader(PreferenceAnnotationProcessorTest.class.getClassLoader(), compilation);
+        var clazz = classLoader.loadClass("eu.jonahbauer.android.preference.annotations.generated.TestPreferences");
+        clazz.getMethod("init", SharedPreferences.class, Resources.class).invoke(null, sharedPreferences, resources);
+
+        var group = clazz.getMethod("general").invoke(null);
+        var setter = group.getClass().getMethod("intPref", int.class);
+        var publisher = (Flow.Publisher<Integer>) group.getClass().getMethod("intPrefPublisher").invoke(group);
+
+        var values = new ArrayList<Integer>();
+        var subscription = new Flow.Subscription[1];
+        publisher.subscribe(new Flow.Subscriber<>() {
+            public void onSubscribe(Flow.Subscription s) { subscription[0] = s; }
+            public void onNext(Integer item) { values.add(item); }
+            public void onError(Throwable throwable) { fail(throwable); }
+            public void onComplete() { fail(); }
+        });
+
+        // nothing is emitted without demand
+        assertEquals(List.of(), values);
+        subscription[0].request(1);
+        assertEquals(List.of(0), values);
+
+        // values are conflated while there is no demand
+        setter.invoke(group, 1);
+        setter.invoke(group, 2);
+        assertEquals(List.of(0), values);
+        subscription[0].request(5);
+        assertEquals(List.of(0, 2), values);
+
+        // consecutive equal values are emitted once
+        setter.invoke(group, 2);
+        sharedPreferences.edit().putString(PREFERENCES_GENERAL_STRING, "Hello World!").apply();
+        setter.invoke(group, 3);
+        assertEquals(List.of(0, 2, 3), values);
+
+        subscription[0].cancel();
+        setter.invoke(group, 4);
+        assertEquals(List.of(0, 2, 3), values);
+    }
+
     @Test
     public void testUnsupportedSerializer() {
         var compilation = compile("input/TestPreferencesUnsupportedSerializer.java");
@@ -249,11 +1480,14 @@ public class PreferenceAnnotationProcessorTest {
     }
 
     @SuppressWarnings("deprecation")
-    private static Compilation compile(String file) {
+    private static Compilation compile(String file, String...options) {
+        var compilerOptions = new ArrayList<>(List.of("--release", "11"));
+        compilerOptions.addAll(List.of(options));
+
         var compilation = Compiler.javac()
                 .withProcessors(new PreferenceProcessor())
                 .withClasspathFrom(PreferenceAnnotationProcessorTest.class.getClassLoader())
-                .withOptions("--release", "11")
+                .withOptions(compilerOptions)
                 .compile(JavaFileObjects.forResource(file));
         if (compilation.status() == Compilation.Status.SUCCESS) {
             print(compilation);
@@ -261,6 +1495,10 @@ public class PreferenceAnnotationProcessorTest {
         return compilation;
     }
 
+    private static Path resource(String name) throws URISyntaxException {
+        return Path.of(Objects.requireNonNull(PreferenceAnnotationProcessorTest.class.getClassLoader().getResource(name)).toURI());
+    }
+
     private static void print(Compilation compilation) {
         for (var source : compilation.generatedSourceFiles()) {
             System.out.println(source.getName());
@@ -273,6 +1511,32 @@ public class PreferenceAnnotationProcessorTest {
         }
     }
 
+    /**
+     * Returns {@link SharedPreferences} that queue the notifications of their listeners in the given list instead of
+     * delivering them immediately, just like Android does when an editor is applied off the main thread.
+     */
+    private SharedPreferences deferredListeners(List<Runnable> callbacks) {
+        var delegate = sharedPreferences;
+        return (SharedPreferences) Proxy.newProxyInstance(
+                SharedPreferences.class.getClassLoader(),
+                new Class<?>[] {SharedPreferences.class},
+                (proxy, method, args) -> {
+                    if ("registerOnSharedPreferenceChangeListener".equals(method.getName())) {
+                        var listener = (SharedPreferences.OnSharedPreferenceChangeListener) args[0];
+                        delegate.registerOnSharedPreferenceChangeListener(
+                                (preferences, key) -> callbacks.add(() -> listener.onSharedPreferenceChanged((SharedPreferences) proxy, key))
+                        );
+                        return null;
+                    }
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+        );
+    }
+
     private void check(Class<?> clazz,  Map<String, List<Preference<?>>> groups) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
         check(clazz, true, groups);
     }
@@ -18,5 +18,7 @@ public final class R {
         public static int preferences_general_enum_pref_key = 11;
         public static int preferences_general_list_pref_key = 12;
         public static int preferences_general_set_pref_key = 13;
+        public static int preferences_general_other_boolean_pref_key = 14;
+        public static int preferences_general_packed_booleans_0_key = 15;
     }
 }
@@ -0,0 +1,235 @@
+package eu.jonahbauer.android.preference.annotations.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedPreferenceStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testPersistence() throws IOException {
+        var file = directory.resolve("preferences.bin");
+
+        try (var store = new MappedPreferenceStore(file)) {
+            assertTrue(store.getAll().isEmpty());
+            assertTrue(store.edit()
+                    .putString("string", "Hello World!")
+                    .putStringSet("set", Set.of("a", "b", "\u00e4"))
+                    .putInt("int", 42)
+                    .putLong("long", Long.MAX_VALUE)
+                    .putFloat("float", 3.14f)
+                    .putBoolean("boolean", true)
+                    .commit()
+            );
+        }
+
+        try (var store = new MappedPreferenceStore(file)) {
+            assertEquals("Hello World!", store.getString("string", null));
+            assertEquals(Set.of("a", "b", "\u00e4"), store.getStringSet("set", null));
+            assertEquals(42, store.getInt("int", 0));
+            assertEquals(Long.MAX_VALUE, store.getLong("long", 0));
+            assertEquals(3.14f, store.getFloat("float", 0));
+            assertTrue(store.getBoolean("boolean", false));
+            assertEquals(6, store.getAll().size());
+
+            store.edit().remove("int").putString("string", null).apply();
+            assertFalse(store.contains("int"));
+            assertFalse(store.contains("string"));
+            assertEquals(-1, store.getInt("int", -1));
+        }
+
+        try (var store = new MappedPreferenceStore(file)) {
+            assertEquals(Map.of("set", Set.of("a", "b", "\u00e4"), "long", Long.MAX_VALUE, "float", 3.14f, "boolean", true), store.getAll());
+
+            store.edit().clear().putInt("int", 1).apply();
+            assertEquals(Map.of("int", 1), store.getAll());
+        }
+    }
+
+    @Test
+    public void testGrowth() throws IOException {
+        var file = directory.resolve("preferences.bin");
+
+        try (var store = new MappedPreferenceStore(file)) {
+            var editor = store.edit();
+            for (int i = 0; i < 1000; i++) editor.putInt("int" + i, i);
+            editor.apply();
+            var size = Files.size(file);
+
+            // replaced entries are reused once the replacing entries have been forced
+            for (int i = 0; i < 24; i++) store.edit().remove("int" + i).putLong("long" + i, i).commit();
+            assertEquals(size, Files.size(file));
+        }
+
+        try (var store = new MappedPreferenceStore(file)) {
+            for (int i = 24; i < 1000; i++) assertEquals(i, store.getInt("int" + i, -1));
+            for (int i = 0; i < 24; i++) assertEquals(i, store.getLong("long" + i, -1));
+            assertFalse(store.contains("int0"));
+        }
+    }
+
+    @Test
+    public void testLargeEntries() throws IOException {
+        var file = directory.resolve("preferences.bin");
+        var string = "a string that spans multiple slots ".repeat(100);
+        var set = Set.of("a".repeat(200), "b".repeat(300), "c");
+
+        try (var store = new MappedPreferenceStore(file, 32, 0)) {
+            store.edit().putInt("int", 1).putString("string", string).putStringSet("set", set).putInt("other", 2).apply();
+            assertEquals(string, store.getString("string", null));
+            assertEquals(set, store.getStringSet("set", null));
+        }
+
+        try (var store = new MappedPreferenceStore(file, 32, 0)) {
+            assertEquals(Map.of("int", 1, "string", string, "set", set, "other", 2), store.getAll());
+
+            // entries can grow and shrink
+            store.edit().putString("string", "short").putInt("int", 3).apply();
+            store.edit().putString("string", string + string).commit();
+            assertEquals(Map.of("int", 3, "string", string + string, "set", set, "other", 2), store.getAll());
+        }
+
+        try (var store = new MappedPreferenceStore(file, 32, 0)) {
+            assertEquals(Map.of("int", 3, "string", string + string, "set", set, "other", 2), store.getAll());
+        }
+    }
+
+    @Test
+    public void testCrashRecovery() throws IOException {
+        var file = directory.resolve("preferences.bin");
+        var complete = directory.resolve("complete.bin");
+        var torn = directory.resolve("torn.bin");
+        var tornBefore = directory.resolve("torn-before.bin");
+
+        try (var store = new MappedPreferenceStore(file)) {
+            store.edit().putInt("alpha", 1).putInt("beta", 1).putString("gamma", "Hello").commit();
+
+            // simulate crashes by copying the file before the applied changes have been forced
+            store.edit().putInt("alpha", 2).putInt("beta", 2).remove("gamma").apply();
+            Files.copy(file, complete);
+            Files.copy(file, torn);
+            store.edit().putInt("alpha", 3).apply();
+            Files.copy(file, tornBefore);
+        }
+
+        // a completely written batch is recovered even if it has not been forced
+        try (var store = new MappedPreferenceStore(complete)) {
+            assertEquals(Map.of("alpha", 2, "beta", 2), store.getAll());
+        }
+
+        // a partially written batch is discarded completely
+        corrupt(torn, "beta", 1);
+        try (var store = new MappedPreferenceStore(torn)) {
+            assertEquals(Map.of("alpha", 1, "beta", 1, "gamma", "Hello"), store.getAll());
+            store.edit().putInt("beta", 4).apply();
+        }
+        try (var store = new MappedPreferenceStore(torn)) {
+            assertEquals(Map.of("alpha", 1, "beta", 4, "gamma", "Hello"), store.getAll());
+        }
+
+        // as are all batches written after a partially written batch
+        corrupt(tornBefore, "beta", 1);
+        try (var store = new MappedPreferenceStore(tornBefore)) {
+            assertEquals(Map.of("alpha", 1, "beta", 1, "gamma", "Hello"), store.getAll());
+        }
+    }
+
+    /**
+     * Flips a bit in the value of the n-th entry with the given key.
+     */
+    private static void corrupt(Path file, String key, int index) throws IOException {
+        var bytes = Files.readAllBytes(file);
+        var pattern = key.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0, found = 0; i <= bytes.length - pattern.length; i++) {
+            if (Arrays.equals(bytes, i, i + pattern.length, pattern, 0, pattern.length) && found++ == index) {
+                bytes[i + pattern.length] ^= 1;
+                Files.write(file, bytes);
+                return;
+            }
+        }
+        fail("Key " + key + " not found.");
+    }
+
+    @Test
+    public void testInvalidAccess() throws IOException {
+        var file = directory.resolve("preferences.bin");
+
+        try (var store = new MappedPreferenceStore(file, 32, 0)) {
+            store.edit().putInt("int", 42).apply();
+            assertThrows(ClassCastException.class, () -> store.getLong("int", 0));
+
+            var exception = assertThrows(IllegalArgumentException.class, () -> store.edit().putString("x".repeat(0x10000), ""));
+            assertTrue(exception.getMessage().contains("65535 bytes"));
+            exception = assertThrows(IllegalArgumentException.class, () -> store.edit().putString("string", "x".repeat(MappedPreferenceStore.MAX_ENTRY_SIZE)));
+            assertTrue(exception.getMessage().contains(MappedPreferenceStore.MAX_ENTRY_SIZE + " bytes"));
+        }
+
+        assertThrows(IOException.class, () -> new MappedPreferenceStore(file, 64, 0));
+
+        var other = directory.resolve("other.bin");
+        Files.write(other, new byte[32]);
+        assertThrows(IOException.class, () -> new MappedPreferenceStore(other));
+    }
+
+    @Test
+    public void testEditorReuse() throws IOException {
+        try (var store = new MappedPreferenceStore(directory.resolve("preferences.bin"))) {
+            store.edit().putString("string", "Hello World!").apply();
+
+            // an editor is reset after every write
+            var editor = store.edit();
+            editor.clear().putInt("a", 1).apply();
+            assertEquals(Map.of("a", 1), store.getAll());
+
+            editor.putInt("b", 2).apply();
+            assertEquals(Map.of("a", 1, "b", 2), store.getAll());
+
+            // changes that have already been written are not written again
+            store.edit().putInt("a", 3).commit();
+            assertTrue(editor.putInt("c", 4).commit());
+            assertEquals(Map.of("a", 3, "b", 2, "c", 4), store.getAll());
+        }
+    }
+
+    @Test
+    public void testListeners() throws IOException {
+        try (var store = new MappedPreferenceStore(directory.resolve("preferences.bin"), MappedPreferenceStore.DEFAULT_SLOT_SIZE, 10)) {
+            var events = new ArrayList<String>();
+            PreferenceStore.OnChangeListener listener = (s, key) -> {
+                assertSame(store, s);
+                events.add(key);
+            };
+            store.registerOnChangeListener(listener);
+
+            store.edit().putInt("int", 1).putString("string", "Hello World!").apply();
+            assertEquals(List.of("int", "string"), events);
+
+            // unchanged values are not reported
+            events.clear();
+            store.edit().putInt("int", 2).putString("string", "Hello World!").remove("missing").apply();
+            assertEquals(List.of("int"), events);
+
+            events.clear();
+            store.edit().clear().commit();
+            assertEquals(Arrays.asList((String) null), events);
+
+            events.clear();
+            store.unregisterOnChangeListener(listener);
+            store.edit().putInt("int", 3).apply();
+            assertEquals(List.of(), events);
+        }
+    }
+}
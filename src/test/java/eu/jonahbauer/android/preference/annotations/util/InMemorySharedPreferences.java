@@ -2,13 +2,13 @@ package eu.jonahbauer.android.preference.annotations.util;
 
 import android.content.SharedPreferences;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class InMemorySharedPreferences implements SharedPreferences {
     private final AtomicReference<Map<String, ?>> map = new AtomicReference<>(new HashMap<>());
+    // android only keeps weak references to its listeners
+    private final Map<OnSharedPreferenceChangeListener, Object> listeners = Collections.synchronizedMap(new WeakHashMap<>());
 
     @SuppressWarnings("unchecked")
     private <T> T get(String key, T defaultValue) {
@@ -65,60 +65,93 @@ public class InMemorySharedPreferences implements SharedPreferences {
         return new Editor();
     }
 
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.put(listener, this);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyListeners(String key) {
+        List<OnSharedPreferenceChangeListener> listeners;
+        synchronized (this.listeners) {
+            listeners = new ArrayList<>(this.listeners.keySet());
+        }
+        for (var listener : listeners) {
+            listener.onSharedPreferenceChanged(this, key);
+        }
+    }
+
     private class Editor implements SharedPreferences.Editor {
         private final Map<String, Object> changes = new HashMap<>(map.get());
+        private final Set<String> keys = new LinkedHashSet<>();
+        private boolean cleared;
 
         @Override
         public SharedPreferences.Editor putString(String key, String value) {
             changes.put(key, value);
+            keys.add(key);
             return this;
         }
 
         @Override
         public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
             changes.put(key, Set.copyOf(values));
+            keys.add(key);
             return this;
         }
 
         @Override
         public SharedPreferences.Editor putInt(String key, int value) {
             changes.put(key, value);
+            keys.add(key);
             return this;
         }
 
         @Override
         public SharedPreferences.Editor putLong(String key, long value) {
             changes.put(key, value);
+            keys.add(key);
             return this;
         }
 
         @Override
         public SharedPreferences.Editor putFloat(String key, float value) {
             changes.put(key, value);
+            keys.add(key);
             return this;
         }
 
         @Override
         public SharedPreferences.Editor putBoolean(String key, boolean value) {
             changes.put(key, value);
+            keys.add(key);
             return this;
         }
 
         @Override
         public SharedPreferences.Editor remove(String key) {
             changes.remove(key);
+            keys.add(key);
             return this;
         }
 
         @Override
         public SharedPreferences.Editor clear() {
             changes.clear();
+            keys.clear();
+            cleared = true;
             return this;
         }
 
         @Override
         public boolean commit() {
             InMemorySharedPreferences.this.map.set(changes);
+            if (cleared) notifyListeners(null);
+            keys.forEach(InMemorySharedPreferences.this::notifyListeners);
             return true;
         }
 
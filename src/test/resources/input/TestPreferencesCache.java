@@ -0,0 +1,34 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+import eu.jonahbauer.android.preference.annotations.serializer.PreferenceSerializer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, cache = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "int_pref", type = int.class, description = "an int preference"),
+                @Preference(name = "string_pref", type = String.class, description = "a string preference"),
+                @Preference(name = "list_pref", type = Integer.class, description = "an int list preference", serializer = TestPreferencesCache.IntListSerializer.class),
+        })
+})
+public final class TestPreferencesCache {
+    private TestPreferencesCache() {}
+
+    public static class IntListSerializer implements PreferenceSerializer<List<Integer>, String> {
+        public String serialize(List<Integer> value) {
+            if (value == null) return null;
+            return value.stream().map(String::valueOf).collect(Collectors.joining(" "));
+        }
+
+        public List<Integer> deserialize(String value) {
+            if (value == null) return null;
+            return Arrays.stream(value.split(" ")).map(Integer::valueOf).collect(Collectors.toList());
+        }
+    }
+}
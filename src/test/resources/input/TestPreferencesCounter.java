@@ -0,0 +1,17 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+import eu.jonahbauer.android.preference.annotations.WritePolicy;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, editor = true, snapshot = true, slots = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "int_pref", type = int.class, description = "an int counter", counter = true, debounceWindow = 50, defaultValue = "10"),
+                @Preference(name = "long_pref", type = long.class, description = "a long counter", counter = true, writePolicy = WritePolicy.ON_FLUSH)
+        })
+})
+public final class TestPreferencesCounter {
+    private TestPreferencesCounter() {}
+}
@@ -0,0 +1,34 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+
+import eu.jonahbauer.android.preference.annotations.serializer.PreferenceSerializer;
+
+import java.math.BigInteger;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, snapshot = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "big_int_pref", type = BigInteger.class, description = "a big integer preference", defaultValue = "ff", serializer = TestPreferencesDeserializedDefault.BigIntSerializer.class)
+        })
+})
+public final class TestPreferencesDeserializedDefault {
+    public static int deserializations = 0;
+
+    private TestPreferencesDeserializedDefault() {}
+
+    public static class BigIntSerializer implements PreferenceSerializer<BigInteger, String> {
+        public String serialize(BigInteger value) {
+            if (value == null) return null;
+            return value.toString(16);
+        }
+
+        public BigInteger deserialize(String value) {
+            deserializations++;
+            if (value == null) return null;
+            return new BigInteger(value, 16);
+        }
+    }
+}
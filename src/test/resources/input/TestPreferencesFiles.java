@@ -0,0 +1,19 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, editor = true, snapshot = true, listeners = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "int_pref", type = int.class, description = "an int preference"),
+                @Preference(name = "string_pref", type = String.class, description = "a string preference", cache = true)
+        }),
+        @PreferenceGroup(name = "other", prefix = "preferences_general_", suffix = "_key", file = "other", value = {
+                @Preference(name = "other_boolean_pref", type = boolean.class, description = "a boolean preference", cache = true)
+        })
+})
+public final class TestPreferencesFiles {
+    private TestPreferencesFiles() {}
+}
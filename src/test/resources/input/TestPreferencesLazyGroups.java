@@ -0,0 +1,19 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, lazyGroups = true, cache = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "int_pref", type = int.class, description = "an int preference"),
+                @Preference(name = "string_pref", type = String.class, description = "a string preference")
+        }),
+        @PreferenceGroup(name = "unused", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "long_pref", type = long.class, description = "a long preference")
+        })
+})
+public final class TestPreferencesLazyGroups {
+    private TestPreferencesLazyGroups() {}
+}
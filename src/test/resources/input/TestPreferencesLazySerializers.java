@@ -0,0 +1,39 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+
+import eu.jonahbauer.android.preference.annotations.serializer.PreferenceSerializer;
+
+import java.math.BigInteger;
+import java.time.DayOfWeek;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, editor = true, lazySerializers = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "big_int_pref", type = BigInteger.class, description = "a big integer preference", serializer = TestPreferencesLazySerializers.BigIntSerializer.class),
+                @Preference(name = "enum_pref", type = DayOfWeek.class, description = "an enum preference", defaultValue = "MONDAY")
+        })
+})
+public final class TestPreferencesLazySerializers {
+    public static int instances = 0;
+
+    private TestPreferencesLazySerializers() {}
+
+    public static class BigIntSerializer implements PreferenceSerializer<BigInteger, String> {
+        public BigIntSerializer() {
+            instances++;
+        }
+
+        public String serialize(BigInteger value) {
+            if (value == null) return null;
+            return value.toString(16);
+        }
+
+        public BigInteger deserialize(String value) {
+            if (value == null) return null;
+            return new BigInteger(value, 16);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, listeners = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "int_pref", type = int.class, description = "an int preference"),
+                @Preference(name = "string_pref", type = String.class, description = "a string preference"),
+                @Preference(name = "void_pref", type = void.class, description = "a void preference")
+        }),
+        @PreferenceGroup(name = "other", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "boolean_pref", type = boolean.class, description = "a boolean preference")
+        })
+})
+public final class TestPreferencesListeners {
+    private TestPreferencesListeners() {}
+}
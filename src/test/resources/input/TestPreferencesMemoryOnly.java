@@ -0,0 +1,22 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+
+import java.nio.file.StandardOpenOption;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, listeners = true, editor = true, snapshot = true, cache = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "int_pref", type = int.class, description = "a memory-only int preference", memoryOnly = true, defaultValue = "16"),
+                @Preference(name = "enum_pref", type = StandardOpenOption.class, description = "a memory-only enum preference", memoryOnly = true, defaultValue = "READ"),
+                @Preference(name = "string_pref", type = String.class, description = "a string preference")
+        }),
+        @PreferenceGroup(name = "other", prefix = "preferences_general_", suffix = "_key", packBooleans = true, memoryOnly = true, value = {
+                @Preference(name = "other_boolean_pref", type = boolean.class, description = "a memory-only boolean preference", defaultValue = "true")
+        })
+})
+public final class TestPreferencesMemoryOnly {
+    private TestPreferencesMemoryOnly() {}
+}
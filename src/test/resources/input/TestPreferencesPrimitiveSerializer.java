@@ -0,0 +1,65 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+import eu.jonahbauer.android.preference.annotations.serializer.BooleanPreferenceSerializer;
+import eu.jonahbauer.android.preference.annotations.serializer.FloatPreferenceSerializer;
+import eu.jonahbauer.android.preference.annotations.serializer.IntPreferenceSerializer;
+import eu.jonahbauer.android.preference.annotations.serializer.LongPreferenceSerializer;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, editor = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "int_pref", type = DayOfWeek.class, description = "an int preference", serializer = TestPreferencesPrimitiveSerializer.DayOfWeekSerializer.class, defaultValue = "1"),
+                @Preference(name = "long_pref", type = Duration.class, description = "a long preference", serializer = TestPreferencesPrimitiveSerializer.DurationSerializer.class),
+                @Preference(name = "float_pref", type = Double.class, description = "a float preference", serializer = TestPreferencesPrimitiveSerializer.PercentageSerializer.class),
+                @Preference(name = "boolean_pref", type = String.class, description = "a boolean preference", serializer = TestPreferencesPrimitiveSerializer.YesNoSerializer.class)
+        })
+})
+public final class TestPreferencesPrimitiveSerializer {
+    private TestPreferencesPrimitiveSerializer() {}
+
+    public static class DayOfWeekSerializer implements IntPreferenceSerializer<DayOfWeek> {
+        public int serializeInt(DayOfWeek value) {
+            return value.getValue();
+        }
+
+        public DayOfWeek deserializeInt(int value) {
+            return DayOfWeek.of(value);
+        }
+    }
+
+    public static class DurationSerializer implements LongPreferenceSerializer<Duration> {
+        public long serializeLong(Duration value) {
+            return value.toMillis();
+        }
+
+        public Duration deserializeLong(long value) {
+            return Duration.ofMillis(value);
+        }
+    }
+
+    public static class PercentageSerializer implements FloatPreferenceSerializer<Double> {
+        public float serializeFloat(Double value) {
+            return (float) (value / 100);
+        }
+
+        public Double deserializeFloat(float value) {
+            return (double) value * 100;
+        }
+    }
+
+    public static class YesNoSerializer implements BooleanPreferenceSerializer<String> {
+        public boolean serializeBoolean(String value) {
+            return "yes".equals(value);
+        }
+
+        public String deserializeBoolean(boolean value) {
+            return value ? "yes" : "no";
+        }
+    }
+}
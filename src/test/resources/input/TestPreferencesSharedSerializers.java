@@ -0,0 +1,42 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+
+import eu.jonahbauer.android.preference.annotations.serializer.PreferenceSerializer;
+
+import java.math.BigInteger;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "big_int_pref", type = BigInteger.class, description = "a big integer preference", serializer = TestPreferencesSharedSerializers.BigIntSerializer.class),
+                @Preference(name = "object_pref", type = BigInteger.class, description = "another big integer preference", serializer = TestPreferencesSharedSerializers.BigIntSerializer.class),
+                @Preference(name = "list_pref", type = BigInteger.class, description = "an unshared big integer preference", serializer = TestPreferencesSharedSerializers.BigIntSerializer.class, shareSerializer = false)
+        }),
+        @PreferenceGroup(name = "other", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "string_pref", type = BigInteger.class, description = "a big integer preference", serializer = TestPreferencesSharedSerializers.BigIntSerializer.class)
+        })
+})
+public final class TestPreferencesSharedSerializers {
+    public static int instances = 0;
+
+    private TestPreferencesSharedSerializers() {}
+
+    public static class BigIntSerializer implements PreferenceSerializer<BigInteger, String> {
+        public BigIntSerializer() {
+            instances++;
+        }
+
+        public String serialize(BigInteger value) {
+            if (value == null) return null;
+            return value.toString(16);
+        }
+
+        public BigInteger deserialize(String value) {
+            if (value == null) return null;
+            return new BigInteger(value, 16);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+
+import java.util.Set;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, editor = true, skipUnchangedWrites = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "boolean_pref", type = boolean.class, description = "a boolean preference"),
+                @Preference(name = "char_pref", type = char.class, description = "a char preference"),
+                @Preference(name = "int_pref", type = int.class, description = "an int preference"),
+                @Preference(name = "float_pref", type = float.class, description = "a float preference"),
+                @Preference(name = "double_pref", type = double.class, description = "a double preference"),
+                @Preference(name = "string_pref", type = String.class, description = "a string preference"),
+                @Preference(name = "set_pref", type = Set.class, description = "a string set preference")
+        })
+})
+public final class TestPreferencesSkipUnchangedWrites {
+    private TestPreferencesSkipUnchangedWrites() {}
+}
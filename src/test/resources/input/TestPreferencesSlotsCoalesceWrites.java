@@ -0,0 +1,21 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+
+import java.util.Set;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, slots = true, coalesceWrites = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "boolean_pref", type = boolean.class, description = "a boolean preference"),
+                @Preference(name = "int_pref", type = int.class, description = "a int preference", skipUnchangedWrites = true),
+                @Preference(name = "long_pref", type = long.class, description = "a long preference"),
+                @Preference(name = "string_pref", type = String.class, description = "a string preference", cache = true),
+                @Preference(name = "set_pref", type = Set.class, description = "a string set preference")
+        })
+})
+public final class TestPreferencesSlotsCoalesceWrites {
+    private TestPreferencesSlotsCoalesceWrites() {}
+}
@@ -0,0 +1,45 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+
+import eu.jonahbauer.android.preference.annotations.serializer.PreferenceSerializer;
+
+import java.math.BigInteger;
+import java.util.Set;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, snapshot = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "boolean_pref", type = boolean.class, description = "a boolean preference"),
+                @Preference(name = "byte_pref", type = byte.class, description = "a byte preference", defaultValue = "5"),
+                @Preference(name = "char_pref", type = char.class, description = "a char preference"),
+                @Preference(name = "int_pref", type = int.class, description = "an int preference"),
+                @Preference(name = "long_pref", type = long.class, description = "a long preference"),
+                @Preference(name = "float_pref", type = float.class, description = "a float preference"),
+                @Preference(name = "double_pref", type = double.class, description = "a double preference"),
+                @Preference(name = "string_pref", type = String.class, description = "a string preference", defaultValue = "default"),
+                @Preference(name = "set_pref", type = Set.class, description = "a string set preference"),
+                @Preference(name = "void_pref", type = void.class, description = "a void preference"),
+                @Preference(name = "big_int_pref", type = BigInteger.class, description = "a big integer preference", serializer = TestPreferencesSnapshot.BigIntSerializer.class)
+        }),
+        @PreferenceGroup(name = "other", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "short_pref", type = short.class, description = "a short preference")
+        })
+})
+public final class TestPreferencesSnapshot {
+    private TestPreferencesSnapshot() {}
+
+    public static class BigIntSerializer implements PreferenceSerializer<BigInteger, String> {
+        public String serialize(BigInteger value) {
+            if (value == null) return null;
+            return value.toString(16);
+        }
+
+        public BigInteger deserialize(String value) {
+            if (value == null) return null;
+            return new BigInteger(value, 16);
+        }
+    }
+}
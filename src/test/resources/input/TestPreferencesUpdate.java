@@ -0,0 +1,62 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+import eu.jonahbauer.android.preference.annotations.WritePolicy;
+import eu.jonahbauer.android.preference.annotations.serializer.PreferenceSerializer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, update = true, cache = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "list_pref", type = Integer.class, description = "an int list preference", serializer = TestPreferencesUpdate.NumberListSerializer.class),
+                @Preference(name = "int_pref", type = int.class, description = "an int preference"),
+                @Preference(name = "float_pref", type = float.class, description = "a float preference"),
+                @Preference(name = "string_pref", type = String.class, description = "a string preference", writePolicy = WritePolicy.ON_FLUSH),
+                @Preference(name = "long_pref", type = long.class, description = "a long counter", counter = true)
+        }),
+        @PreferenceGroup(name = "other", prefix = "preferences_general_", suffix = "_key", packBooleans = true, value = {
+                @Preference(name = "other_boolean_pref", type = boolean.class, description = "a packed boolean preference"),
+                @Preference(name = "boolean_pref", type = boolean.class, description = "a memory-only boolean preference", memoryOnly = true)
+        })
+})
+public final class TestPreferencesUpdate {
+    private TestPreferencesUpdate() {}
+
+    public static class NumberListSerializer<T extends Number> implements PreferenceSerializer<List<T>, String> {
+        private final Class<? extends T> clazz;
+
+        public NumberListSerializer(Class<? extends T> clazz) {
+            this.clazz = clazz;
+        }
+
+        public String serialize(List<T> value) {
+            if (value == null) {
+                return null;
+            } else {
+                return value.stream().map(String::valueOf).collect(Collectors.joining(" "));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public List<T> deserialize(String value) {
+            if (value == null || value.isEmpty()) {
+                return new ArrayList<>();
+            } else try {
+                var method = clazz.getMethod("valueOf", String.class);
+                var list = new ArrayList<T>();
+                for (String str : value.split(" ")) {
+                    list.add((T) method.invoke(null, str));
+                }
+                return list;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
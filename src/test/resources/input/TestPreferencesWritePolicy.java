@@ -0,0 +1,24 @@
+package eu.jonahbauer.android.preference.annotations.sources;
+
+import eu.jonahbauer.android.preference.annotations.Preference;
+import eu.jonahbauer.android.preference.annotations.PreferenceGroup;
+import eu.jonahbauer.android.preference.annotations.Preferences;
+import eu.jonahbauer.android.preference.annotations.R;
+import eu.jonahbauer.android.preference.annotations.WritePolicy;
+
+import java.util.Set;
+
+@Preferences(name = "eu.jonahbauer.android.preference.annotations.generated.TestPreferences", r = R.class, makeFile = true, editor = true, snapshot = true, value = {
+        @PreferenceGroup(name = "general", prefix = "preferences_general_", suffix = "_key", value = {
+                @Preference(name = "int_pref", type = int.class, description = "an int preference", writePolicy = WritePolicy.DEBOUNCED, debounceWindow = 50),
+                @Preference(name = "string_pref", type = String.class, description = "a string preference", writePolicy = WritePolicy.ON_FLUSH, cache = true, skipUnchangedWrites = true),
+                @Preference(name = "set_pref", type = Set.class, description = "a string set preference", writePolicy = WritePolicy.ON_FLUSH),
+                @Preference(name = "long_pref", type = long.class, description = "a long preference")
+        }),
+        @PreferenceGroup(name = "other", prefix = "preferences_general_", suffix = "_key", packBooleans = true, value = {
+                @Preference(name = "other_boolean_pref", type = boolean.class, description = "a packed boolean preference", writePolicy = WritePolicy.ON_FLUSH)
+        })
+})
+public final class TestPreferencesWritePolicy {
+    private TestPreferencesWritePolicy() {}
+}